@@ -0,0 +1,56 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <pre>
+ * 测量一次最简单的RPC调用在客户端和服务器两边共分配的字节数，参数和返回值都很小，分配的基本都是框架本身的对象
+ *
+ * 需要加上-prof gc运行，看gc.alloc.rate.norm（每次调用分配的字节数）：
+ *
+ * java -jar target/benchmarks.jar AllocationBenchmark -prof gc
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AllocationBenchmark {
+
+    private LoopbackFixture fixture;
+
+    private EchoService service;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        fixture = new LoopbackFixture(new EchoServiceImpl()).clientConfig("domainSocket", false).start();
+        service = fixture.proxy(EchoService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public int call() {
+        return service.add(1, 2);
+    }
+}
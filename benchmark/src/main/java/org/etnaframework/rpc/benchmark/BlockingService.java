@@ -0,0 +1,15 @@
+package org.etnaframework.rpc.benchmark;
+
+/**
+ * 模拟阻塞在数据库/下游RPC上的服务
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public interface BlockingService {
+
+    /**
+     * 阻塞指定的毫秒数后返回参数本身
+     */
+    public int block(int millis) throws InterruptedException;
+}
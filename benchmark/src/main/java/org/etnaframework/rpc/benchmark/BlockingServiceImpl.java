@@ -0,0 +1,17 @@
+package org.etnaframework.rpc.benchmark;
+
+import org.etnaframework.rpc.annotation.RpcService;
+
+/**
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@RpcService
+public class BlockingServiceImpl implements BlockingService {
+
+    @Override
+    public int block(int millis) throws InterruptedException {
+        Thread.sleep(millis);
+        return millis;
+    }
+}
@@ -0,0 +1,143 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.etnaframework.rpc.codec.HessianSerializationDecoder;
+import org.etnaframework.rpc.codec.HessianSerializationEncoder;
+import org.etnaframework.rpc.codec.JBossSerializationDecoder;
+import org.etnaframework.rpc.codec.JBossSerializationEncoder;
+import org.etnaframework.rpc.codec.RpcRequest;
+import org.etnaframework.rpc.codec.RpcResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * <pre>
+ * 对比jboss-serialization和hessian两种编码解码器处理不同参数（见{@link Payloads}）的开销
+ *
+ * 编码解码器放在{@link EmbeddedChannel}中执行，与在真实连接上相同，包括写入头部、hessian的gzip压缩等
+ * jboss-serialization在JDK9及以上无法反序列化HashMap，jboss的map组合需要在JDK8上运行
+ * 加上-prof gc可以同时看到每次操作分配的字节数（gc.alloc.rate.norm）：
+ *
+ * java -jar target/benchmarks.jar CodecBenchmark -prof gc
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final int MAX_BYTES = 10 * 1024 * 1024;
+
+    @Param({
+        "jboss",
+        "hessian"
+    })
+    public String codec;
+
+    @Param({
+        Payloads.DTO,
+        Payloads.LIST,
+        Payloads.BYTES,
+        Payloads.MAP
+    })
+    public String payload;
+
+    private EmbeddedChannel encoder;
+
+    private EmbeddedChannel decoder;
+
+    private RpcRequest request;
+
+    private RpcResponse response;
+
+    /** 编码好的请求/回包，解码时每次复制一份读取位置 */
+    private ByteBuf encodedRequest;
+
+    private ByteBuf encodedResponse;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ChannelInboundHandlerAdapter handler = new ChannelInboundHandlerAdapter(); // 出错时异常会传到EmbeddedChannel，在读写时抛出
+        if ("jboss".equals(codec)) {
+            encoder = new EmbeddedChannel(new JBossSerializationEncoder(handler));
+            decoder = new EmbeddedChannel(new JBossSerializationDecoder(MAX_BYTES, handler));
+        } else {
+            encoder = new EmbeddedChannel(new HessianSerializationEncoder(MAX_BYTES, handler));
+            decoder = new EmbeddedChannel(new HessianSerializationDecoder(MAX_BYTES, handler));
+        }
+        Object value = Payloads.create(payload);
+        request = new RpcRequest("org.etnaframework.rpc.benchmark.PayloadService.echo(java.lang.Object)", new Object[] {
+            value
+        });
+        request.sequence = 1;
+        response = new RpcResponse();
+        response.sequence = 1;
+        response.result = value;
+        encodedRequest = encode(request);
+        encodedResponse = encode(response);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        encodedRequest.release();
+        encodedResponse.release();
+        encoder.finishAndReleaseAll();
+        decoder.finishAndReleaseAll();
+    }
+
+    private ByteBuf encode(Object msg) {
+        encoder.writeOutbound(msg);
+        return (ByteBuf) encoder.readOutbound();
+    }
+
+    private Object decode(ByteBuf encoded) {
+        decoder.writeInbound(encoded.retainedDuplicate());
+        return decoder.readInbound();
+    }
+
+    @Benchmark
+    public int encodeRequest() {
+        ByteBuf buf = encode(request);
+        int bytes = buf.readableBytes();
+        buf.release();
+        return bytes;
+    }
+
+    @Benchmark
+    public Object decodeRequest() {
+        return decode(encodedRequest);
+    }
+
+    @Benchmark
+    public int encodeResponse() {
+        ByteBuf buf = encode(response);
+        int bytes = buf.readableBytes();
+        buf.release();
+        return bytes;
+    }
+
+    @Benchmark
+    public Object decodeResponse() {
+        return decode(encodedResponse);
+    }
+}
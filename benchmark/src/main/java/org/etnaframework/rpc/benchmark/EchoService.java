@@ -0,0 +1,30 @@
+package org.etnaframework.rpc.benchmark;
+
+/**
+ * 几种典型方法签名的简单服务，用于测量框架本身的开销
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public interface EchoService {
+
+    /**
+     * 基本类型参数和返回值，需要拆箱/装箱
+     */
+    public int add(int a, int b);
+
+    /**
+     * 对象参数和返回值
+     */
+    public String echo(String value);
+
+    /**
+     * 无返回值
+     */
+    public void touch(long value);
+
+    /**
+     * 无参数
+     */
+    public long count();
+}
@@ -0,0 +1,33 @@
+package org.etnaframework.rpc.benchmark;
+
+import org.etnaframework.rpc.annotation.RpcService;
+
+/**
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@RpcService
+public class EchoServiceImpl implements EchoService {
+
+    private long count;
+
+    @Override
+    public int add(int a, int b) {
+        return a + b;
+    }
+
+    @Override
+    public String echo(String value) {
+        return value;
+    }
+
+    @Override
+    public void touch(long value) {
+        count += value;
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+}
@@ -0,0 +1,81 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <pre>
+ * 客户端通过本机回环地址调用本进程内启动的服务器的完整往返，包括编码、网络、解码、执行、回包
+ *
+ * latency 单线程调用，SampleTime模式，输出p50/p90/p99等分位数
+ * throughput 多线程共用一个连接时的吞吐量
+ * 加上-prof gc可以看到每次调用在客户端和服务器两边共分配的字节数：
+ *
+ * java -jar target/benchmarks.jar EndToEndBenchmark -prof gc
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({
+        Payloads.DTO,
+        Payloads.LIST,
+        Payloads.BYTES,
+        Payloads.MAP
+    })
+    public String payload;
+
+    private LoopbackFixture fixture;
+
+    private PayloadService service;
+
+    private Object value;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        fixture = new LoopbackFixture(new PayloadServiceImpl()).clientConfig("domainSocket", false).start();
+        service = fixture.proxy(PayloadService.class);
+        value = Payloads.create(payload);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object latency() {
+        return service.echo(value);
+    }
+
+    @Benchmark
+    @Group("throughput")
+    @GroupThreads(16)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object throughput() {
+        return service.echo(value);
+    }
+}
@@ -0,0 +1,73 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.etnaframework.rpc.server.RpcServerHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <pre>
+ * 对比业务代码在公共线程池和虚拟线程中执行时，阻塞型服务的吞吐量
+ *
+ * 客户端用大量线程并发调用一个阻塞{@link #blockMillis}毫秒的方法，
+ * 线程池模式下吞吐量受限于线程池大小，虚拟线程模式下应接近 客户端线程数 / 阻塞时间
+ * virtual模式需要在JDK21及以上运行，否则会自动退回pool模式，两组结果将相同
+ *
+ * java -jar target/benchmarks.jar ExecutionModeBenchmark
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(512)
+public class ExecutionModeBenchmark {
+
+    @Param({
+        RpcServerHandler.EXECUTION_MODE_POOL,
+        RpcServerHandler.EXECUTION_MODE_VIRTUAL
+    })
+    public String mode;
+
+    @Param({
+        "10"
+    })
+    public int blockMillis;
+
+    private LoopbackFixture fixture;
+
+    private BlockingService service;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        fixture = new LoopbackFixture(new BlockingServiceImpl()).serverConfig("executionMode", mode).start();
+        service = fixture.proxy(BlockingService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public int blockingCall() throws InterruptedException {
+        return service.block(blockMillis);
+    }
+}
@@ -0,0 +1,108 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.etnaframework.rpc.server.RpcInvoker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <pre>
+ * 对比{@link RpcInvoker}各种实现方式调用服务方法的开销
+ *
+ * 服务器默认会为每个方法选择能用的最快的一种，某种方式在当前JDK/方法上无法使用时（如LAMBDA不支持void方法），
+ * 对应组合的基准方法会报错，JMH会继续运行其余的组合
+ *
+ * java -jar target/benchmarks.jar InvokerBenchmark
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvokerBenchmark {
+
+    @Param({
+        "JAVASSIST",
+        "LAMBDA",
+        "METHOD_HANDLE",
+        "REFLECTION"
+    })
+    public RpcInvoker.Type type;
+
+    private RpcInvoker add;
+
+    private RpcInvoker echo;
+
+    private RpcInvoker touch;
+
+    private RpcInvoker count;
+
+    private Object[] addArgs = {
+        1,
+        2
+    };
+
+    private Object[] echoArgs = {
+        "hello"
+    };
+
+    private Object[] touchArgs = {
+        1L
+    };
+
+    private Object[] noArgs = {};
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        EchoService service = new EchoServiceImpl();
+        add = create(service, "add", int.class, int.class);
+        echo = create(service, "echo", String.class);
+        touch = create(service, "touch", long.class);
+        count = create(service, "count");
+    }
+
+    private RpcInvoker create(Object service, String name, Class<?>... parameterTypes) throws Throwable {
+        Method method = EchoService.class.getMethod(name, parameterTypes);
+        try {
+            return RpcInvoker.create(type, service, method);
+        } catch (Throwable e) {
+            return null; // 不支持的组合，对应的基准方法会直接抛出NullPointerException
+        }
+    }
+
+    @Benchmark
+    public Object primitive() throws Throwable {
+        return add.invoke(addArgs);
+    }
+
+    @Benchmark
+    public Object object() throws Throwable {
+        return echo.invoke(echoArgs);
+    }
+
+    @Benchmark
+    public Object voidMethod() throws Throwable {
+        return touch.invoke(touchArgs);
+    }
+
+    @Benchmark
+    public Object noArg() throws Throwable {
+        return count.invoke(noArgs);
+    }
+}
@@ -0,0 +1,371 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.etnaframework.rpc.stat.RpcHistogram;
+
+/**
+ * <pre>
+ * RPC压测工具，支持两种模式：
+ *
+ * open   开环，按固定速率发送请求，不管之前的请求是否已经回包，
+ *        每个请求的延迟从它“应该发出”的时间算起，服务器变慢导致请求积压时，排队的时间也计入延迟，
+ *        避免协调遗漏（coordinated omission）——即发送方被慢请求阻塞后少发请求，慢的那段时间在统计中几乎不出现
+ * closed 闭环，固定个数的并发调用方，每个收到回包后立即发下一个，测量的是最大吞吐量，延迟只反映服务时间
+ *
+ * 开环模式下同时报告从应发时间算起的响应时间和从实际发出算起的服务时间，两者差距越大说明积压越严重
+ * concurrency是最多同时等待回包的请求数，开环模式下需要大于 速率 x 延迟，否则实际速率达不到目标速率，
+ * 压测时长内排定的请求都会发出，积压时实际耗时会超过压测时长
+ *
+ * 可以在代码中针对任意接口代理使用，也可以直接运行main方法，在本进程内启动服务器通过本机回环地址压测{@link EchoService}：
+ * java -cp target/benchmarks.jar org.etnaframework.rpc.benchmark.LoadGenerator mode=open rate=20000 method=echo payload=256
+ *
+ * 参数（均为key=value格式）：
+ * mode=open|closed      默认open
+ * rate=N                开环模式每秒的请求数，默认10000
+ * concurrency=N         最多同时等待回包的请求数，默认64
+ * duration=N            压测时长，单位秒，默认30
+ * warmup=N              预热时长，单位秒，不计入结果，默认5
+ * method=name           {@link EchoService}的方法名，默认echo
+ * payload=N             字符串和byte[]参数的字节数，默认64
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class LoadGenerator {
+
+    public static final String MODE_OPEN = "open";
+
+    public static final String MODE_CLOSED = "closed";
+
+    /**
+     * 生成每次调用的参数
+     */
+    public interface Payload {
+
+        /**
+         * @param index 请求的序号，从0开始
+         */
+        public Object[] next(long index);
+    }
+
+    private final Object target;
+
+    private final Method method;
+
+    private Payload payload;
+
+    private String mode = MODE_OPEN;
+
+    private int rate = 10000;
+
+    private int concurrency = 64;
+
+    private int durationSeconds = 30;
+
+    private int warmupSeconds = 5;
+
+    /**
+     * @param target 接口代理，一般由RpcClientFactory.getInstance或{@link LoopbackFixture#proxy(Class)}获得
+     * @param method 要调用的接口方法
+     */
+    public LoadGenerator(Object target, Method method) {
+        this.target = target;
+        this.method = method;
+        this.payload = defaultPayload(method, 64);
+    }
+
+    public LoadGenerator payload(Payload payload) {
+        this.payload = payload;
+        return this;
+    }
+
+    public LoadGenerator mode(String mode) {
+        if (!MODE_OPEN.equals(mode) && !MODE_CLOSED.equals(mode)) {
+            throw new IllegalArgumentException("压测模式只能是" + MODE_OPEN + "或" + MODE_CLOSED + "：" + mode);
+        }
+        this.mode = mode;
+        return this;
+    }
+
+    public LoadGenerator rate(int rate) {
+        this.rate = rate;
+        return this;
+    }
+
+    public LoadGenerator concurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public LoadGenerator duration(int durationSeconds) {
+        this.durationSeconds = durationSeconds;
+        return this;
+    }
+
+    public LoadGenerator warmup(int warmupSeconds) {
+        this.warmupSeconds = warmupSeconds;
+        return this;
+    }
+
+    /**
+     * 先预热，再正式压测，返回正式压测的结果
+     */
+    public Report run() throws InterruptedException {
+        if (rate <= 0 || concurrency <= 0 || durationSeconds <= 0) {
+            throw new IllegalArgumentException("速率、并发数和压测时长必须大于0");
+        }
+        if (warmupSeconds > 0) {
+            run(warmupSeconds);
+        }
+        return run(durationSeconds);
+    }
+
+    private Report run(int seconds) throws InterruptedException {
+        final boolean open = MODE_OPEN.equals(mode);
+        final Report report = new Report(mode, open ? rate : 0, concurrency);
+        final AtomicLong next = new AtomicLong();
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        final long begin = System.nanoTime();
+        final long end = begin + TimeUnit.SECONDS.toNanos(seconds);
+        Thread[] workers = new Thread[concurrency];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Thread("LoadGenerator-" + t) {
+
+                @Override
+                public void run() {
+                    while (true) {
+                        long index = next.getAndIncrement();
+                        long intended;
+                        if (open) { // 按固定速率排好每个请求应该发出的时间，调用方都忙时后面的请求只能晚发，晚的这段也要算进延迟
+                            intended = begin + index * intervalNanos;
+                            if (intended >= end) {
+                                return;
+                            }
+                            for (long wait = intended - System.nanoTime(); wait > 0; wait = intended - System.nanoTime()) {
+                                LockSupport.parkNanos(wait);
+                            }
+                        } else {
+                            intended = System.nanoTime();
+                            if (intended >= end) {
+                                return;
+                            }
+                        }
+                        Object[] args = payload.next(index);
+                        long sent = System.nanoTime();
+                        Throwable error = null;
+                        try {
+                            method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            error = e.getCause();
+                        } catch (Throwable e) {
+                            error = e;
+                        }
+                        long done = System.nanoTime();
+                        report.record(intended, sent, done, error);
+                    }
+                }
+            };
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        report.elapsedNanos = System.nanoTime() - begin;
+        return report;
+    }
+
+    /**
+     * 根据方法的参数类型生成参数：字符串和byte[]为指定的字节数，数字为请求序号，其他类型为null
+     */
+    public static Payload defaultPayload(Method method, int payloadBytes) {
+        final Class<?>[] types = method.getParameterTypes();
+        char[] chars = new char[payloadBytes];
+        Arrays.fill(chars, 'x');
+        final String text = new String(chars);
+        final byte[] bytes = new byte[payloadBytes];
+        return new Payload() {
+
+            @Override
+            public Object[] next(long index) {
+                Object[] args = new Object[types.length];
+                for (int i = 0; i < types.length; i++) {
+                    Class<?> c = types[i];
+                    if (c == String.class) {
+                        args[i] = text;
+                    } else if (c == byte[].class) {
+                        args[i] = bytes;
+                    } else if (c == int.class || c == Integer.class) {
+                        args[i] = (int) index;
+                    } else if (c == long.class || c == Long.class) {
+                        args[i] = index;
+                    }
+                }
+                return args;
+            }
+        };
+    }
+
+    /**
+     * 一次压测的结果
+     */
+    public static class Report {
+
+        private final String mode;
+
+        private final int targetRate;
+
+        private final int concurrency;
+
+        /** 从应该发出的时间算起的响应时间，闭环模式下与{@link #service}相同 */
+        private final RpcHistogram response = new RpcHistogram();
+
+        /** 从实际发出算起的服务时间 */
+        private final RpcHistogram service = new RpcHistogram();
+
+        private final LongAdder errors = new LongAdder();
+
+        /** 异常类名到次数的映射 */
+        private final Map<String, LongAdder> errorTypes = new ConcurrentHashMap<String, LongAdder>();
+
+        private long elapsedNanos;
+
+        Report(String mode, int targetRate, int concurrency) {
+            this.mode = mode;
+            this.targetRate = targetRate;
+            this.concurrency = concurrency;
+        }
+
+        void record(long intended, long sent, long done, Throwable error) {
+            response.record(done - intended);
+            service.record(done - sent);
+            if (null != error) {
+                errors.increment();
+                String type = error.getClass().getName();
+                LongAdder c = errorTypes.get(type);
+                if (null == c) {
+                    errorTypes.putIfAbsent(type, new LongAdder());
+                    c = errorTypes.get(type);
+                }
+                c.increment();
+            }
+        }
+
+        public RpcHistogram.Snapshot getResponseTime() {
+            return response.snapshot();
+        }
+
+        public RpcHistogram.Snapshot getServiceTime() {
+            return service.snapshot();
+        }
+
+        public long getCount() {
+            return response.snapshot().getCount();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * 各种异常的次数，按类名排序
+         */
+        public Map<String, Long> getErrorTypes() {
+            Map<String, Long> m = new TreeMap<String, Long>();
+            for (Entry<String, LongAdder> e : errorTypes.entrySet()) {
+                m.put(e.getKey(), e.getValue().sum());
+            }
+            return m;
+        }
+
+        /**
+         * 实际完成的请求数/秒，包括出错的
+         */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : getCount() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("mode=").append(mode);
+            if (targetRate > 0) {
+                sb.append(", target_rate=").append(targetRate).append("/s");
+            }
+            sb.append(", concurrency=").append(concurrency);
+            sb.append(String.format(", elapsed=%.1fs, completed=%d, throughput=%.1f/s, errors=%d%n", elapsedNanos / 1e9, getCount(), getThroughput(), getErrors()));
+            Map<String, RpcHistogram.Snapshot> rows = new LinkedHashMap<String, RpcHistogram.Snapshot>();
+            rows.put(targetRate > 0 ? "response(from intended)" : "latency", getResponseTime());
+            if (targetRate > 0) {
+                rows.put("service(from sent)", getServiceTime());
+            }
+            sb.append(String.format("%-24s %10s %10s %10s %10s %10s %10s %10s%n", "us", "mean", "p50", "p90", "p99", "p99.9", "p99.99", "max"));
+            for (Entry<String, RpcHistogram.Snapshot> e : rows.entrySet()) {
+                RpcHistogram.Snapshot s = e.getValue();
+                sb.append(String.format("%-24s %10d %10d %10d %10d %10d %10d %10d%n", e.getKey(), micros(s.getMean()), micros(s.getP50()), micros(s.getP90()), micros(s.getP99()), micros(s.getP999()),
+                    micros(s.getValueAtPercentile(99.99)), micros(s.getMax())));
+            }
+            for (Entry<String, Long> e : getErrorTypes().entrySet()) {
+                sb.append("error ").append(e.getKey()).append(": ").append(e.getValue()).append(String.format("%n"));
+            }
+            return sb.toString();
+        }
+
+        private static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        Map<String, String> conf = new LinkedHashMap<String, String>();
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i <= 0) {
+                throw new IllegalArgumentException("参数格式应为key=value：" + arg);
+            }
+            conf.put(arg.substring(0, i), arg.substring(i + 1));
+        }
+        String methodName = get(conf, "method", "echo");
+        Method method = null;
+        for (Method m : EchoService.class.getMethods()) {
+            if (m.getName().equals(methodName)) {
+                method = m;
+            }
+        }
+        if (null == method) {
+            throw new IllegalArgumentException(EchoService.class.getSimpleName() + "没有方法" + methodName);
+        }
+        LoopbackFixture fixture = new LoopbackFixture(new EchoServiceImpl()).start();
+        try {
+            LoadGenerator generator = new LoadGenerator(fixture.proxy(EchoService.class), method);
+            generator.payload(defaultPayload(method, Integer.parseInt(get(conf, "payload", "64"))));
+            generator.mode(get(conf, "mode", MODE_OPEN));
+            generator.rate(Integer.parseInt(get(conf, "rate", "10000")));
+            generator.concurrency(Integer.parseInt(get(conf, "concurrency", "64")));
+            generator.duration(Integer.parseInt(get(conf, "duration", "30")));
+            generator.warmup(Integer.parseInt(get(conf, "warmup", "5")));
+            System.out.println(EchoService.class.getSimpleName() + "." + methodName + " " + conf);
+            System.out.print(generator.run());
+        } finally {
+            fixture.close();
+        }
+        System.exit(0); // RPC客户端的IO线程不是守护线程
+    }
+
+    private static String get(Map<String, String> conf, String key, String def) {
+        String v = conf.get(key);
+        return null == v ? def : v;
+    }
+}
@@ -0,0 +1,258 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.etnaframework.rpc.codec.RpcCodecFactory;
+import org.etnaframework.rpc.server.RpcErrorReporter;
+import org.etnaframework.rpc.server.RpcMappers;
+import org.etnaframework.rpc.server.RpcServer;
+import org.etnaframework.rpc.server.RpcServerHandler;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+
+/**
+ * <pre>
+ * 在当前进程内启动一个RPC服务器并通过本机回环地址调用，不依赖Spring容器
+ *
+ * 正式环境中这些对象由Spring创建并注入配置，这里通过反射完成同样的装配，
+ * 因此只适合基准测试使用，RPC框架内部字段改名时需要同步修改
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class LoopbackFixture implements Closeable {
+
+    public static final String HOST = "127.0.0.1";
+
+    private RpcMappers rpcMappers = new RpcMappers();
+
+    private RpcServerHandler rpcServerHandler = new RpcServerHandler();
+
+    private int serverLazyDecodeBytes = -1;
+
+    private EventLoopGroup bossGroup;
+
+    private EventLoopGroup workerGroup;
+
+    private Channel serverChannel;
+
+    /** 不为null时额外在该目录下监听Unix域套接字，见{@link RpcServer#getDomainSocketPath(String, int)} */
+    private String domainSocketDir;
+
+    private File domainSocketFile;
+
+    private EventLoopGroup domainBossGroup;
+
+    private EventLoopGroup domainWorkerGroup;
+
+    private Channel domainChannel;
+
+    /** 建立客户端连接前设置到RpcClient上的配置项 */
+    private Map<String, Object> clientConfigs = new LinkedHashMap<String, Object>();
+
+    public LoopbackFixture(Object... serviceBeans) throws Throwable {
+        rpcMappers.init(Arrays.asList(serviceBeans));
+        setField(rpcServerHandler, "rpcMappers", rpcMappers);
+        setField(rpcServerHandler, "rpcErrorReporter", new RpcErrorReporter());
+    }
+
+    /**
+     * 设置{@link RpcServerHandler}上的配置项，需在{@link #start()}之前调用
+     */
+    public LoopbackFixture serverConfig(String field, Object value) throws Exception {
+        setField(rpcServerHandler, field, value);
+        return this;
+    }
+
+    /**
+     * 设置服务器延迟反序列化的阈值，只对带头部的数据包生效，因此大于等于0时客户端也会发送带头部的数据包
+     */
+    public LoopbackFixture serverLazyDecodeBytes(int lazyDecodeBytes) {
+        this.serverLazyDecodeBytes = lazyDecodeBytes;
+        if (lazyDecodeBytes >= 0) {
+            clientConfigs.put("frameHeader", true);
+        }
+        return this;
+    }
+
+    /**
+     * 设置RpcClient上的配置项，需在{@link #proxy(Class)}之前调用
+     */
+    public LoopbackFixture clientConfig(String field, Object value) {
+        clientConfigs.put(field, value);
+        return this;
+    }
+
+    /**
+     * 服务器额外在指定目录下监听Unix域套接字，客户端会自动改用它连接，需要linux的epoll支持
+     */
+    public LoopbackFixture domainSocket(String dir) {
+        this.domainSocketDir = dir;
+        clientConfigs.put("domainSocket", true);
+        clientConfigs.put("domainSocketDir", dir);
+        return this;
+    }
+
+    /**
+     * 启动服务器，绑定本机回环地址的随机端口
+     */
+    public LoopbackFixture start() throws Throwable {
+        invoke(rpcServerHandler, "init");
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors());
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workerGroup);
+        bootstrap.channel(NioServerSocketChannel.class);
+        bootstrap.childOption(ChannelOption.TCP_NODELAY, true);
+        ChannelInitializer<Channel> initializer = new ChannelInitializer<Channel>() {
+
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                ChannelPipeline p = ch.pipeline();
+                p.addLast("decoder", RpcCodecFactory.createDecoder(rpcServerHandler, serverLazyDecodeBytes));
+                p.addLast("encoder", RpcCodecFactory.createEncoder(rpcServerHandler));
+                p.addLast("handler", rpcServerHandler);
+            }
+        };
+        bootstrap.childHandler(initializer);
+        serverChannel = bootstrap.bind(new InetSocketAddress(HOST, 0)).sync().channel();
+        if (null != domainSocketDir) {
+            domainBossGroup = new EpollEventLoopGroup(1);
+            domainWorkerGroup = new EpollEventLoopGroup(Runtime.getRuntime().availableProcessors());
+            ServerBootstrap domainBootstrap = new ServerBootstrap();
+            domainBootstrap.group(domainBossGroup, domainWorkerGroup);
+            domainBootstrap.channel(EpollServerDomainSocketChannel.class);
+            domainBootstrap.childHandler(initializer);
+            domainSocketFile = new File(RpcServer.getDomainSocketPath(domainSocketDir, getPort()));
+            domainSocketFile.delete();
+            domainChannel = domainBootstrap.bind(new DomainSocketAddress(domainSocketFile)).sync().channel();
+        }
+        return this;
+    }
+
+    public int getPort() {
+        return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    }
+
+    public RpcMappers getRpcMappers() {
+        return rpcMappers;
+    }
+
+    public RpcServerHandler getRpcServerHandler() {
+        return rpcServerHandler;
+    }
+
+    /**
+     * 获取通过回环地址远程调用的接口代理，与RpcClientFactory.getInstance得到的代理相同，只是跳过了“本进程服务直接调用”的判断
+     */
+    public <T> T proxy(Class<T> interfaceClass) throws Throwable {
+        connect();
+        Class<?> handlerClass = Class.forName("org.etnaframework.rpc.client.RpcClientFactory$RpcInterfaceProxyHandler");
+        Constructor<?> c = handlerClass.getDeclaredConstructor(String.class, int.class);
+        c.setAccessible(true);
+        InvocationHandler handler = (InvocationHandler) c.newInstance(HOST, getPort());
+        return interfaceClass.cast(Proxy.newProxyInstance(interfaceClass.getClassLoader(), new Class<?>[] {
+            interfaceClass
+        }, handler));
+    }
+
+    /**
+     * 预先建立客户端连接并放入RpcClient的缓存，正式环境中RpcClient是从Spring容器中获取的原型bean
+     */
+    @SuppressWarnings("unchecked")
+    private void connect() throws Throwable {
+        Class<?> clientClass = Class.forName("org.etnaframework.rpc.client.RpcClient");
+        Field clientsField = clientClass.getDeclaredField("clients");
+        clientsField.setAccessible(true);
+        Map<String, Object> clients = (Map<String, Object>) clientsField.get(null);
+        String key = HOST + ":" + getPort();
+        if (clients.containsKey(key)) {
+            return;
+        }
+        Object client = newClient(clientClass);
+        Method init = clientClass.getDeclaredMethod("init", String.class, int.class, boolean.class);
+        init.setAccessible(true);
+        if (!(Boolean) init.invoke(client, HOST, getPort(), true)) { // 与RpcClient.getInstance相同，域套接字连接失败时换一个实例改用TCP
+            client = newClient(clientClass);
+            init.invoke(client, HOST, getPort(), false);
+        }
+        clients.put(key, client);
+    }
+
+    private Object newClient(Class<?> clientClass) throws Exception {
+        Constructor<?> c = clientClass.getDeclaredConstructor();
+        c.setAccessible(true);
+        Object client = c.newInstance();
+        for (Entry<String, Object> e : clientConfigs.entrySet()) {
+            setField(client, e.getKey(), e.getValue());
+        }
+        return client;
+    }
+
+    @Override
+    public void close() {
+        if (null != serverChannel) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        if (null != bossGroup) {
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+        }
+        if (null != domainChannel) {
+            domainChannel.close().syncUninterruptibly();
+            domainSocketFile.delete();
+            domainBossGroup.shutdownGracefully();
+            domainWorkerGroup.shutdownGracefully();
+        }
+    }
+
+    static void setField(Object target, String name, Object value) throws Exception {
+        Field f = findField(target.getClass(), name);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+
+    static Object invoke(Object target, String name) throws Throwable {
+        for (Class<?> c = target.getClass(); null != c; c = c.getSuperclass()) {
+            try {
+                Method m = c.getDeclaredMethod(name);
+                m.setAccessible(true);
+                return m.invoke(target);
+            } catch (NoSuchMethodException e) {
+                // 继续找父类
+            }
+        }
+        throw new NoSuchMethodException(target.getClass().getName() + "." + name);
+    }
+
+    private static Field findField(Class<?> clazz, String name) throws NoSuchFieldException {
+        for (Class<?> c = clazz; null != c; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredField(name);
+            } catch (NoSuchFieldException e) {
+                // 继续找父类
+            }
+        }
+        throw new NoSuchFieldException(clazz.getName() + "." + name);
+    }
+}
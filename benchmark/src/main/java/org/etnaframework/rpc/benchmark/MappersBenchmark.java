@@ -0,0 +1,94 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.etnaframework.core.util.ReflectionTools;
+import org.etnaframework.rpc.server.RpcMappers;
+import org.etnaframework.rpc.server.RpcMeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <pre>
+ * 服务器收到请求后按方法签名查找{@link RpcMeta}并执行的开销，与直接调用服务方法对比
+ *
+ * 各种调用方式之间的对比见{@link InvokerBenchmark}，这里使用服务器为每个方法实际选择的方式
+ *
+ * java -jar target/benchmarks.jar MappersBenchmark
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappersBenchmark {
+
+    private EchoService service;
+
+    private RpcMappers rpcMappers;
+
+    private String addSignature;
+
+    private String echoSignature;
+
+    private RpcMeta add;
+
+    private RpcMeta echo;
+
+    private Object[] addArgs = {
+        1,
+        2
+    };
+
+    private Object[] echoArgs = {
+        "hello"
+    };
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        service = new EchoServiceImpl();
+        rpcMappers = new LoopbackFixture(service, new BlockingServiceImpl(), new PayloadServiceImpl()).getRpcMappers();
+        addSignature = ReflectionTools.getMethodSingature(EchoService.class.getMethod("add", int.class, int.class));
+        echoSignature = ReflectionTools.getMethodSingature(EchoService.class.getMethod("echo", String.class));
+        add = rpcMappers.getRpcMeta(addSignature);
+        echo = rpcMappers.getRpcMeta(echoSignature);
+    }
+
+    @Benchmark
+    public RpcMeta lookup() {
+        return rpcMappers.getRpcMeta(echoSignature);
+    }
+
+    @Benchmark
+    public Object invokePrimitive() throws Throwable {
+        return add.invoke(addArgs);
+    }
+
+    @Benchmark
+    public Object invokeObject() throws Throwable {
+        return echo.invoke(echoArgs);
+    }
+
+    @Benchmark
+    public Object lookupAndInvoke() throws Throwable {
+        return rpcMappers.getRpcMeta(echoSignature).invoke(echoArgs);
+    }
+
+    @Benchmark
+    public Object direct() {
+        return service.echo((String) echoArgs[0]);
+    }
+}
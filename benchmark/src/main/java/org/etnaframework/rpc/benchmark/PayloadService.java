@@ -0,0 +1,12 @@
+package org.etnaframework.rpc.benchmark;
+
+/**
+ * 原样返回参数的服务，参数见{@link Payloads}，用于测量不同大小和结构的对象的端到端开销
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public interface PayloadService {
+
+    public Object echo(Object payload);
+}
@@ -0,0 +1,16 @@
+package org.etnaframework.rpc.benchmark;
+
+import org.etnaframework.rpc.annotation.RpcService;
+
+/**
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@RpcService
+public class PayloadServiceImpl implements PayloadService {
+
+    @Override
+    public Object echo(Object payload) {
+        return payload;
+    }
+}
@@ -0,0 +1,126 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 基准测试用的几种典型的参数/返回值
+ *
+ * dto   一个包含基本类型和字符串字段的小对象
+ * list  1000个小对象组成的列表
+ * bytes 64KB的byte数组
+ * map   三层嵌套的Map，共约1000个叶子节点
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public final class Payloads {
+
+    public static final String DTO = "dto";
+
+    public static final String LIST = "list";
+
+    public static final String BYTES = "bytes";
+
+    public static final String MAP = "map";
+
+    private Payloads() {
+    }
+
+    public static Object create(String kind) {
+        if (DTO.equals(kind)) {
+            return new SampleDto(1);
+        }
+        if (LIST.equals(kind)) {
+            List<SampleDto> list = new ArrayList<SampleDto>();
+            for (int i = 0; i < 1000; i++) {
+                list.add(new SampleDto(i));
+            }
+            return list;
+        }
+        if (BYTES.equals(kind)) {
+            byte[] bytes = new byte[64 * 1024];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) i;
+            }
+            return bytes;
+        }
+        if (MAP.equals(kind)) {
+            Map<String, Object> root = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < 10; i++) {
+                Map<String, Object> child = new LinkedHashMap<String, Object>();
+                for (int j = 0; j < 10; j++) {
+                    Map<String, Object> leaf = new LinkedHashMap<String, Object>();
+                    for (int k = 0; k < 10; k++) {
+                        leaf.put("key" + k, k % 2 == 0 ? (Object) ("value" + k) : (Object) k);
+                    }
+                    child.put("child" + j, leaf);
+                }
+                root.put("node" + i, child);
+            }
+            return root;
+        }
+        throw new IllegalArgumentException("未知的参数类型：" + kind);
+    }
+
+    /**
+     * 典型的业务数据对象
+     */
+    public static class SampleDto implements Serializable {
+
+        private static final long serialVersionUID = 2600851245913847316L;
+
+        private long id;
+
+        private int status;
+
+        private String name;
+
+        private String email;
+
+        private double score;
+
+        private boolean active;
+
+        public SampleDto() {
+        }
+
+        public SampleDto(int i) {
+            this.id = 100000L + i;
+            this.status = i % 4;
+            this.name = "user" + i;
+            this.email = "user" + i + "@example.com";
+            this.score = i * 1.5;
+            this.active = i % 2 == 0;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+    }
+}
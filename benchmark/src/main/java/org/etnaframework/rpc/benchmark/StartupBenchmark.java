@@ -0,0 +1,153 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.etnaframework.core.util.ReflectionTools;
+import org.etnaframework.rpc.server.RpcInvoker;
+import org.etnaframework.rpc.server.RpcMappers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+
+/**
+ * <pre>
+ * 服务器启动时{@link RpcMappers#init(Collection)}映射1000个RPC方法并生成执行器的耗时，对比逐个生成、并行生成和延迟生成
+ *
+ * 20个接口各50个方法，接口在测试开始时用javassist生成并写到临时目录，和普通的类一样由RpcInvoker的ClassPool从类文件解析，服务实现是{@link Proxy}
+ * 每次测量都重新映射一遍，生成的类不会被卸载，所以只测少量几次
+ * 并行生成的效果取决于CPU核数，threads超过核数时没有收益
+ *
+ * java -jar target/benchmarks.jar StartupBenchmark
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    public static final int INTERFACES = 20;
+
+    public static final int METHODS_PER_INTERFACE = 50;
+
+    /** 生成执行器的线程数，即etna.rpc.server.invokerThreads */
+    @Param({
+        "1",
+        "4"
+    })
+    public int threads;
+
+    /** 即etna.rpc.server.lazyInvoker */
+    @Param({
+        "false",
+        "true"
+    })
+    public boolean lazy;
+
+    private File classDir;
+
+    private List<Object> beans;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        classDir = Files.createTempDirectory("etna-rpc-synthetic").toFile();
+        beans = createServices(classDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deleteAll(classDir);
+    }
+
+    @Benchmark
+    public RpcMappers init() throws Throwable {
+        RpcMappers rpcMappers = new RpcMappers();
+        LoopbackFixture.setField(rpcMappers, "invokerThreads", threads);
+        LoopbackFixture.setField(rpcMappers, "lazyInvoker", lazy);
+        rpcMappers.init(beans);
+        return rpcMappers;
+    }
+
+    /**
+     * 生成{@link #INTERFACES}个接口，每个{@link #METHODS_PER_INTERFACE}个方法，混合基本类型、对象、数组参数和void返回值
+     */
+    static List<Object> createServices(File classDir) throws Throwable {
+        ReflectionTools.getCtClass(RpcInvoker.class).getClassPool().insertClassPath(classDir.getPath());
+        ClassPool pool = new ClassPool(true);
+        ClassLoader loader = StartupBenchmark.class.getClassLoader();
+        String prefix = StartupBenchmark.class.getPackage().getName() + ".synthetic" + System.nanoTime() + ".SyntheticService";
+        List<Class<?>> interfaces = new ArrayList<Class<?>>();
+        for (int i = 0; i < INTERFACES; i++) {
+            CtClass intf = pool.makeInterface(prefix + i);
+            for (int j = 0; j < METHODS_PER_INTERFACE; j++) {
+                String method;
+                switch (j % 4) {
+                case 0:
+                    method = "public abstract int m" + j + "(int a, String b);";
+                    break;
+                case 1:
+                    method = "public abstract String m" + j + "(String a, long b, java.util.List c);";
+                    break;
+                case 2:
+                    method = "public abstract void m" + j + "(byte[] a);";
+                    break;
+                default:
+                    method = "public abstract java.util.Map m" + j + "(java.util.Map a, int b, double c, Integer d);";
+                    break;
+                }
+                intf.addMethod(CtNewMethod.make(method, intf));
+            }
+            intf.writeFile(classDir.getPath());
+            interfaces.add(pool.toClass(intf, loader, StartupBenchmark.class.getProtectionDomain()));
+        }
+        List<Object> beans = new ArrayList<Object>();
+        InvocationHandler handler = new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                return null;
+            }
+        };
+        for (Class<?> intf : interfaces) {
+            beans.add(Proxy.newProxyInstance(loader, new Class<?>[] {
+                intf
+            }, handler));
+        }
+        return beans;
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
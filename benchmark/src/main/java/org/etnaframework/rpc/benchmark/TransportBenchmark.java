@@ -0,0 +1,88 @@
+package org.etnaframework.rpc.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <pre>
+ * 对比同一台机器上的进程通过回环地址TCP和Unix域套接字调用的延迟和吞吐量
+ *
+ * latency为单线程往返一次的平均耗时，throughput为多线程共用一个连接时的吞吐量
+ * domain模式需要linux的epoll支持，套接字文件放在java.io.tmpdir下新建的只有当前用户可以访问的目录中
+ *
+ * java -jar target/benchmarks.jar TransportBenchmark
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransportBenchmark {
+
+    @Param({
+        "tcp",
+        "domain"
+    })
+    public String transport;
+
+    private LoopbackFixture fixture;
+
+    private EchoService service;
+
+    private File domainSocketDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        fixture = new LoopbackFixture(new EchoServiceImpl());
+        if ("domain".equals(transport)) {
+            domainSocketDir = Files.createTempDirectory("etna-rpc").toFile(); // 权限为rwx------，客户端才会使用其中的套接字文件
+            fixture.domainSocket(domainSocketDir.getPath());
+        } else {
+            fixture.clientConfig("domainSocket", false);
+        }
+        service = fixture.start().proxy(EchoService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+        if (null != domainSocketDir) {
+            domainSocketDir.delete();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String latency() {
+        return service.echo("hello");
+    }
+
+    @Benchmark
+    @Group("throughput")
+    @GroupThreads(32)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String throughput() {
+        return service.echo("hello");
+    }
+}
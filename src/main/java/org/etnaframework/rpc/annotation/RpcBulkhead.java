@@ -0,0 +1,51 @@
+package org.etnaframework.rpc.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <pre>
+ * 为{@link RpcService}的实现类或其方法指定独立的业务线程池（舱壁隔离），防止一个慢服务占满公共线程池拖垮其他方法
+ *
+ * 加在实现类上时对该类所有RPC方法生效，加在方法上时优先级更高，{@link #value()}相同的会共用同一个线程池
+ * 没有加注解的方法仍然使用公共线程池
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@Inherited
+@Target({
+    ElementType.TYPE,
+    ElementType.METHOD
+})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcBulkhead {
+
+    /** 线程池名称，名称相同的会共用同一个线程池，此时其他参数必须一致 */
+    String value();
+
+    /** 线程数 */
+    int threads() default 8;
+
+    /** 等待队列的长度，队列满了之后按{@link #rejectPolicy()}处理 */
+    int queueSize() default 256;
+
+    /** 线程池和队列都满时的处理策略 */
+    RejectPolicy rejectPolicy() default RejectPolicy.FALLBACK;
+
+    /**
+     * 线程池满时的处理策略
+     */
+    public enum RejectPolicy {
+
+        /** 直接给客户端返回错误 */
+        ABORT,
+
+        /** 转到公共线程池执行 */
+        FALLBACK
+    }
+}
@@ -0,0 +1,68 @@
+package org.etnaframework.rpc.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <pre>
+ * 在服务器端缓存{@link RpcService}实现类中方法的执行结果，适用于计算代价高、变化慢、被很多调用方请求的数据（如配置快照、排行榜）
+ * 参数相同（按equals判断）的调用在有效期内直接返回缓存的结果，不再执行业务代码，只缓存正常返回的结果，抛出异常的不缓存
+ *
+ * 开启etna.rpc.server.shareEncodedResponse后还会缓存序列化后的回包，命中时连序列化也省掉了
+ * 数据变化时可以调用RpcMappers.invalidateCache主动清除缓存
+ * 缓存的结果对象会同时发给多个调用方，业务代码返回后不能再修改它
+ * 流式调用的方法不能使用本注解
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcCacheable {
+
+    /** 缓存结果的有效期，单位秒 */
+    long ttlSeconds() default 60;
+
+    /** 缓存的最大总权重，超过后按{@link #eviction()}淘汰，默认每个结果的权重为1即最多缓存的结果个数 */
+    long maxWeight() default 10000;
+
+    /** 计算每个结果权重的实现类，需要有无参的构造方法 */
+    Class<? extends Weigher> weigher() default Entries.class;
+
+    /** 超过最大总权重时的淘汰策略 */
+    Eviction eviction() default Eviction.LRU;
+
+    /**
+     * 缓存的淘汰策略
+     */
+    public enum Eviction {
+
+        /** 淘汰最久没有被访问的 */
+        LRU,
+
+        /** 淘汰最早放入的 */
+        FIFO
+    }
+
+    /**
+     * 计算缓存结果的权重，如按结果的大致字节数
+     */
+    public interface Weigher {
+
+        public long weigh(Object[] args, Object result);
+    }
+
+    /**
+     * 每个结果的权重都是1，此时最大总权重就是最多缓存的结果个数
+     */
+    public class Entries implements Weigher {
+
+        @Override
+        public long weigh(Object[] args, Object result) {
+            return 1;
+        }
+    }
+}
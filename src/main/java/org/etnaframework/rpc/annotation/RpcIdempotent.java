@@ -0,0 +1,24 @@
+package org.etnaframework.rpc.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <pre>
+ * 标记{@link RpcService}实现类中的方法是幂等的（如按key查询），服务器端会合并同时到达的相同参数的调用
+ * 第一个请求执行期间，后到的参数相同的请求不再执行，直接共用它的结果（包括抛出的异常），防止热点key瞬间的大量请求同时打到数据库
+ *
+ * 参数相同是按equals判断的，参数类型需要正确实现equals/hashCode，否则不会被合并
+ * 返回的结果对象会同时发给多个调用方，业务代码返回后不能再修改它
+ * 流式调用的方法不能使用本注解
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcIdempotent {
+}
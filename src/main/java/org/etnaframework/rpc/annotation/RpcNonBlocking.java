@@ -0,0 +1,28 @@
+package org.etnaframework.rpc.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <pre>
+ * 标记{@link RpcService}实现类中的方法是非阻塞的（如纯内存的key/value查询），服务器端将直接在netty的IO线程上执行并回包
+ * 省去了放入业务线程池的排队、线程唤醒等开销，是延迟最低的调用方式
+ *
+ * 注意：IO线程同时负责很多连接的收发，方法中绝对不能有IO、加锁等待等阻塞操作，否则会拖慢同一IO线程上的所有连接
+ * 执行时间超过{@link #budgetMicros()}的调用会被计数并打日志，请在统计页面上关注
+ * 流式调用的方法需要等待客户端的发送额度，不能使用本注解
+ * 本注解与{@link RpcBulkhead}（包括标注在类上的）互斥，方法会在IO线程上执行，不会进入独立线程池，同时使用时启动会报错
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcNonBlocking {
+
+    /** 单次调用的执行时间预算，单位微秒 */
+    long budgetMicros() default 500;
+}
@@ -0,0 +1,30 @@
+package org.etnaframework.rpc.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import org.etnaframework.rpc.codec.RpcRequest;
+
+/**
+ * <pre>
+ * 声明RPC接口（或接口中的方法）的请求优先级，取值见{@link RpcRequest}中PRIORITY_开头的常量，加在接口定义上由客户端读取
+ * 方法上的优先级高于接口上的，调用时还可以用RpcClientFactory.withPriority临时指定，优先级最高
+ *
+ * 低优先级的请求在客户端使用独立的连接，在服务器端使用独立的线程池（需配置etna.rpc.server.lowPriorityThreads），
+ * 过载时最先被拒绝，用于避免批处理任务拖慢交互式请求
+ * 服务器端没有配置etna.rpc.server.lowPriorityThreads时，低优先级请求与普通请求在同一个线程池中执行，只在过载时先被拒绝
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@Target({
+    ElementType.TYPE,
+    ElementType.METHOD
+})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcPriority {
+
+    byte value();
+}
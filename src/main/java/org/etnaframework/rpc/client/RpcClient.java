@@ -1,8 +1,20 @@
 package org.etnaframework.rpc.client;
 
+import java.io.File;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import org.etnaframework.core.logging.Log;
 import org.etnaframework.core.spring.SpringContext;
@@ -10,16 +22,24 @@ import org.etnaframework.core.spring.annotation.Config;
 import org.etnaframework.core.util.DatetimeUtils;
 import org.etnaframework.core.util.DatetimeUtils.Datetime;
 import org.etnaframework.core.util.HumanReadableUtils;
+import org.etnaframework.core.util.NetUtils;
 import org.etnaframework.core.util.StringTools;
 import org.etnaframework.core.util.SystemInfo;
 import org.etnaframework.core.util.ThreadUtils.NamedThreadFactory;
 import org.etnaframework.rpc.codec.RpcCodecFactory;
+import org.etnaframework.rpc.codec.RpcFrame;
 import org.etnaframework.rpc.codec.RpcRequest;
 import org.etnaframework.rpc.codec.RpcResponse;
 import org.etnaframework.rpc.exception.RpcClientCaughtException;
 import org.etnaframework.rpc.exception.RpcClientWaitTimeoutException;
 import org.etnaframework.rpc.exception.RpcConnectToServerException;
+import org.etnaframework.rpc.exception.RpcException;
 import org.etnaframework.rpc.exception.RpcServerInvocationException;
+import org.etnaframework.rpc.exception.RpcServerOverloadedException;
+import org.etnaframework.rpc.exception.RpcStreamAbortedException;
+import org.etnaframework.rpc.server.RpcServer;
+import org.etnaframework.rpc.stat.RpcInFlightStat;
+import org.etnaframework.rpc.stat.RpcTrafficHandler;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
@@ -32,9 +52,12 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 
 /**
  * RPC调用的客户端，每个远程服务器host:port都将对应一个客户端实例
@@ -44,7 +67,7 @@ import io.netty.channel.socket.nio.NioSocketChannel;
  */
 @Service
 @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
-class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
+class RpcClient extends SimpleChannelInboundHandler<Object> {
 
     /** 远程服务器host:port字符串对对应的请求客户端的映射 */
     private static Map<String, RpcClient> clients = new ConcurrentHashMap<String, RpcClient>();
@@ -74,27 +97,85 @@ class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
     @Config(value = "etna.rpc.client.soLinger", resetable = false)
     private int soLinger = 0;
 
+    /**
+     * <pre>
+     * 回包包体达到该字节数时，IO线程上只解析头部，反序列化放到调用方线程中进行，小于0表示全部在IO线程上反序列化
+     * 需要回包带头部，设置后即按{@link #frameHeader}开启处理
+     * </pre>
+     */
+    @Config(value = "etna.rpc.client.lazyDecodeBytes", resetable = false)
+    private int lazyDecodeBytes = -1;
+
+    /**
+     * <pre>
+     * 发送带头部的数据包（见{@link RpcFrame}），服务器端收到后回包也带头部，这样双方都可以只解析头部、延迟反序列化较大的包体
+     * 旧版本的服务器无法识别头部，需要确认服务器都已升级后再开启，默认关闭时与旧版本的数据包格式完全相同
+     * </pre>
+     */
+    @Config(value = "etna.rpc.client.frameHeader", resetable = false)
+    private boolean frameHeader = false;
+
     @Config(value = "etna.rpc.client.workerCount", resetable = false)
     private int workerCount = SystemInfo.CORE_PROCESSOR_NUM * 2;
 
+    /**
+     * <pre>
+     * 远程服务器在本机且监听了Unix域套接字（见etna.rpc.server.domainSocket）时，是否改用域套接字连接
+     * 只连接属于当前用户、并且所在目录只有当前用户可写的套接字文件，服务器需要以同一用户运行
+     * </pre>
+     */
+    @Config(value = "etna.rpc.client.domainSocket", resetable = false)
+    private boolean domainSocket = false;
+
+    /** Unix域套接字文件所在的目录，需要与服务器的etna.rpc.server.domainSocketDir一致 */
+    @Config(value = "etna.rpc.client.domainSocketDir", resetable = false)
+    private String domainSocketDir = RpcServer.DEFAULT_DOMAIN_SOCKET_DIR;
+
     /** 远程服务器的host */
     private String _host;
 
     /** 远程服务器的端口号 */
     private int _port;
 
+    /** 本连接发送的请求的优先级，低优先级请求使用单独的连接，避免大包体阻塞交互式请求 */
+    private byte _priority = RpcRequest.PRIORITY_NORMAL;
+
+    /** 在{@link #clients}中的key */
+    private String _key;
+
+    /** 低优先级的请求是否使用单独的连接 */
+    @Config(value = "etna.rpc.client.lowPriorityConnection", resetable = false)
+    private static boolean lowPriorityConnection = true;
+
     private Bootstrap bootstrap;
 
     /** 与远程服务器保持的单连接，全双工模式，能同时发送请求/接收回包 */
     private Channel channel;
 
-    /** RPC调用时，本地客户端最多等待结果的时间，单位毫秒 */
+    /** RPC调用时，本地客户端最多等待结果的时间，单位毫秒；流式调用中也是等待下一批数据的时间，以及调用方多久不读取就视为已放弃 */
     @Config("etna.rpc.client.maxWaitForMs")
     private int maxWaitForMs = Datetime.MILLIS_PER_SECOND * 15;
 
+    /** 流式调用时客户端的接收窗口，即服务器端最多可以领先客户端发送的元素个数，客户端每处理完一半就追加一次额度 */
+    @Config("etna.rpc.client.streamWindow")
+    private int streamWindow = 256;
+
+    /**
+     * <pre>
+     * 普通调用等待回包超时或被中断时，是否通知服务器端取消请求，服务器端可以不再执行，也不再回包
+     * 不认识取消请求的旧版本服务器会按找不到方法报错，需要确认服务器端都已升级后再开启
+     * 流式调用提前关闭时总是通知服务器端，不受该配置控制，支持流式调用的服务器都认识取消请求
+     * </pre>
+     */
+    @Config("etna.rpc.client.cancelOnTimeout")
+    private boolean cancelOnTimeout = false;
+
     /** 记录发往远程服务器的sequence和对应的请求/回包数据，远程服务器回包的顺序不一定按发包顺序回，必须通过sequence来做标识 */
     private Map<Long, RpcEvent> requestMap = new ConcurrentHashMap<Long, RpcEvent>();
 
+    /** 是否收到了服务器的{@link RpcResponse#TYPE_GOAWAY}，之后不再在该连接上发送新请求，等已发出的请求都回包后关闭连接 */
+    private volatile boolean draining;
+
     private RpcClient() {
     }
 
@@ -102,14 +183,29 @@ class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
      * 通过host:port获取RPC客户端的实例，本地如果没有的话就初始化一个新的
      */
     public static RpcClient getInstance(String host, int port) {
-        String key = host + ":" + port;
+        return getInstance(host, port, RpcRequest.PRIORITY_NORMAL);
+    }
+
+    /**
+     * 获取发送指定优先级请求的RPC客户端实例，低优先级的请求默认使用单独的连接
+     */
+    public static RpcClient getInstance(String host, int port, byte priority) {
+        if (!lowPriorityConnection) {
+            priority = RpcRequest.PRIORITY_NORMAL;
+        }
+        String key = getKey(host, port, priority);
         RpcClient client = clients.get(key);
         if (null == client) {
             synchronized (clients) {
                 client = clients.get(key);
                 if (null == client) {
                     client = SpringContext.getBean(RpcClient.class);
-                    client.init(host, port);
+                    client._priority = priority;
+                    if (!client.init(host, port, true)) { // 同一个实例不能加入两个连接，改用TCP时需要换一个实例
+                        client = SpringContext.getBean(RpcClient.class);
+                        client._priority = priority;
+                        client.init(host, port, false);
+                    }
                     clients.put(key, client);
                 }
             }
@@ -117,39 +213,190 @@ class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
         return client;
     }
 
-    private void init(String host, int port) {
+    /**
+     * 客户端实例的key，低优先级的连接加上#low后缀，见{@link org.etnaframework.rpc.annotation.RpcPriority}
+     */
+    static String getKey(String host, int port, byte priority) {
+        return priority == RpcRequest.PRIORITY_LOW ? host + ":" + port + "#low" : host + ":" + port;
+    }
+
+    /**
+     * 各个远程服务器host:port正在等待回包的请求数（包括进行中的流式调用）
+     */
+    static Map<String, Integer> getInFlight() {
+        Map<String, Integer> inFlight = new TreeMap<String, Integer>();
+        for (Entry<String, RpcClient> e : clients.entrySet()) {
+            inFlight.put(e.getKey(), e.getValue().requestMap.size());
+        }
+        return inFlight;
+    }
+
+    /**
+     * <pre>
+     * 按远程服务器host:port和方法签名汇总正在等待回包的请求，并找出已等待时间达到maxWaitForMs的nearTimeoutPercent%的请求
+     *
+     * 只是遍历{@link #requestMap}，ConcurrentHashMap的遍历不加锁，不影响发送和回包，可以在线上频繁调用
+     * 遍历期间新发出或刚回包的请求可能计入也可能不计入
+     * </pre>
+     *
+     * @param groups 汇总结果，按host:port、方法签名排序
+     * @param nearTimeout 快要超时的请求，按已等待时间从长到短排序，流式调用每次读取都重新计时，不列入
+     * @param maxNearTimeout nearTimeout最多列出的个数
+     */
+    static void inspectInFlight(List<RpcInFlightStat> groups, List<RpcInFlightStat.Call> nearTimeout, int nearTimeoutPercent, int maxNearTimeout) {
+        long now = System.currentTimeMillis();
+        Map<String, RpcInFlightStat> map = new TreeMap<String, RpcInFlightStat>();
+        List<NearTimeout> candidates = new ArrayList<NearTimeout>();
+        for (Entry<String, RpcClient> e : clients.entrySet()) {
+            RpcClient client = e.getValue();
+            long nearMs = (long) client.maxWaitForMs * nearTimeoutPercent / 100;
+            for (RpcEvent re : client.requestMap.values()) {
+                RpcRequest req = re.request;
+                long ageMs = Math.max(0, now - re.sendTime);
+                String key = e.getKey() + " " + req.signature;
+                RpcInFlightStat stat = map.get(key);
+                if (null == stat) {
+                    stat = new RpcInFlightStat(e.getKey(), req.signature);
+                    map.put(key, stat);
+                }
+                stat.add(ageMs);
+                if (ageMs >= nearMs && !(re instanceof RpcStreamEvent)) {
+                    candidates.add(new NearTimeout(e.getKey(), req, re.sendTime, ageMs, client.maxWaitForMs));
+                }
+            }
+        }
+        groups.addAll(map.values());
+        Collections.sort(candidates, new Comparator<NearTimeout>() {
+
+            @Override
+            public int compare(NearTimeout o1, NearTimeout o2) {
+                return Long.compare(o2.ageMs, o1.ageMs);
+            }
+        });
+        // 参数转JSON的开销较大，只对最终列出的请求做
+        for (NearTimeout c : candidates.subList(0, Math.min(maxNearTimeout, candidates.size()))) {
+            nearTimeout.add(new RpcInFlightStat.Call(c.endpoint, c.request.signature, c.request.sequence, c.sendTime, c.ageMs, c.maxWaitMs, c.request.args));
+        }
+    }
+
+    /**
+     * 快要超时的请求，排序截取后才转成{@link RpcInFlightStat.Call}
+     */
+    private static class NearTimeout {
+
+        private final String endpoint;
+
+        private final RpcRequest request;
+
+        private final long sendTime;
+
+        private final long ageMs;
+
+        private final long maxWaitMs;
+
+        NearTimeout(String endpoint, RpcRequest request, long sendTime, long ageMs, long maxWaitMs) {
+            this.endpoint = endpoint;
+            this.request = request;
+            this.sendTime = sendTime;
+            this.ageMs = ageMs;
+            this.maxWaitMs = maxWaitMs;
+        }
+    }
+
+    /**
+     * 服务器是否已通知即将关闭，此时发送失败可以马上换一个连接重试
+     */
+    boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * 建立到远程服务器的连接，远程服务器在本机并且监听了Unix域套接字时优先使用域套接字
+     *
+     * @param tryDomainSocket 是否尝试使用Unix域套接字
+     * @return 域套接字连接失败（文件可能是服务器异常退出时残留的）时返回false，需要换一个实例改用TCP
+     */
+    private boolean init(String host, int port, boolean tryDomainSocket) {
         this._host = host;
         this._port = port;
+        this._key = getKey(host, port, _priority);
+
+        File socketFile = tryDomainSocket ? getLocalDomainSocket() : null;
+        if (null != socketFile) {
+            try {
+                connect(true, new DomainSocketAddress(socketFile));
+                log.info("connect to RPC Server [" + _host + "(" + _port + ")] via domain socket " + socketFile + " OK");
+                return true;
+            } catch (RpcConnectToServerException ex) {
+                log.warn("connect to RPC Server [" + _host + "(" + _port + ")] via domain socket " + socketFile + " FAILED, fallback to TCP");
+                return false;
+            }
+        }
+        connect(false, new InetSocketAddress(_host, _port));
+        log.info("connect to RPC Server [" + _host + "(" + _port + ")] OK");
+        return true;
+    }
 
-        bootstrap = new Bootstrap();
-        // 线程池的名称使用远程服务器的host:port
-        bootstrap.group(new NioEventLoopGroup(workerCount, new NamedThreadFactory("NioWorker-" + "RPC-Cli(->" + host + ":" + port + ")-", Thread.MAX_PRIORITY)));
-        bootstrap.channel(NioSocketChannel.class);
+    /**
+     * 远程服务器在本机并且监听了Unix域套接字时返回套接字文件，否则返回null
+     */
+    private File getLocalDomainSocket() {
+        if (!domainSocket || !Epoll.isAvailable()) {
+            return null;
+        }
+        File file = new File(RpcServer.getDomainSocketPath(domainSocketDir, _port));
+        if (!file.exists()) {
+            return null;
+        }
+        String remoteIP = NetUtils.getIP(new InetSocketAddress(_host, _port));
+        if (!NetUtils.getLocalIPWith127001().contains(remoteIP)) {
+            return null;
+        }
+        if (!RpcServer.isPrivateDir(file.getParentFile()) || !RpcServer.isOwnedByCurrentUser(file)) { // 可能是其他用户伪造的
+            log.warn("RPC domain socket " + file + " is NOT owned by current user or its dir is writable by others, use TCP instead");
+            return null;
+        }
+        return file;
+    }
 
-        bootstrap.option(ChannelOption.TCP_NODELAY, tcpNoDelay);
-        bootstrap.option(ChannelOption.SO_KEEPALIVE, soKeepAlive);
+    private void connect(boolean domain, SocketAddress address) {
+        bootstrap = new Bootstrap();
+        // 线程池的名称使用远程服务器的host:port，低优先级的单独连接只需要一个IO线程
+        int threads = _priority == RpcRequest.PRIORITY_LOW ? 1 : workerCount;
+        if (domain) {
+            bootstrap.group(new EpollEventLoopGroup(threads, new NamedThreadFactory("EpollWorker-" + "RPC-Cli(->" + _key + ")-", Thread.MAX_PRIORITY)));
+            bootstrap.channel(EpollDomainSocketChannel.class);
+        } else {
+            bootstrap.group(new NioEventLoopGroup(threads, new NamedThreadFactory("NioWorker-" + "RPC-Cli(->" + _key + ")-", Thread.MAX_PRIORITY)));
+            bootstrap.channel(NioSocketChannel.class);
+            bootstrap.option(ChannelOption.TCP_NODELAY, tcpNoDelay);
+            bootstrap.option(ChannelOption.SO_KEEPALIVE, soKeepAlive);
+            bootstrap.option(ChannelOption.SO_RCVBUF, soRcvBuf);
+            bootstrap.option(ChannelOption.SO_LINGER, soLinger);
+        }
         bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis);
-        bootstrap.option(ChannelOption.SO_RCVBUF, soRcvBuf);
-        bootstrap.option(ChannelOption.SO_LINGER, soLinger);
 
-        bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+        bootstrap.handler(new ChannelInitializer<Channel>() {
 
             @Override
-            protected void initChannel(SocketChannel ch) throws Exception {
+            protected void initChannel(Channel ch) throws Exception {
                 ChannelPipeline p = ch.pipeline();
-                p.addLast("decoder", RpcCodecFactory.createDecoder(RpcClient.this));
+                p.addLast("traffic", RpcTrafficHandler.CLIENT);
+                p.addLast("decoder", RpcCodecFactory.createDecoder(RpcClient.this, lazyDecodeBytes));
                 p.addLast("encoder", RpcCodecFactory.createEncoder(RpcClient.this));
                 p.addLast("hander", RpcClient.this);
+                if (frameHeader || lazyDecodeBytes >= 0) {
+                    RpcFrame.enableHeader(ch);
+                }
             }
         });
 
         // 初始化完成后就尝试建立连接，只跟远程服务器保持一个连接，全双工模式，如果连接失败直接可报错
-        ChannelFuture connectFuture = bootstrap.connect(new InetSocketAddress(_host, _port));
+        ChannelFuture connectFuture = bootstrap.connect(address);
         this.channel = connectFuture.awaitUninterruptibly().channel();
-        if (channel.isActive()) {
-            log.info("connect to RPC Server [" + _host + "(" + _port + ")] OK");
-        } else {
-            throw new RpcConnectToServerException("connect to RPC Server [" + host + ":" + port + "] FAILED");
+        if (!channel.isActive()) {
+            bootstrap.config().group().shutdownGracefully();
+            throw new RpcConnectToServerException("connect to RPC Server [" + _host + ":" + _port + "] FAILED");
         }
     }
 
@@ -166,42 +413,149 @@ class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
         RpcEvent re = new RpcEvent(req);
         requestMap.put(req.sequence, re);
         try {
+            if (draining) { // 拿到客户端实例之后才收到通知，换一个连接发送
+                throw new RpcConnectToServerException("connection to RPC Server [" + _host + ":" + _port + "] is DRAINING");
+            }
             if (!channel.isActive()) { // 发送前需要检查一下连接是否有效
                 throw new RpcConnectToServerException("connection to RPC Server [" + _host + ":" + _port + "] is INACTIVE");
             }
-            channel.write(req);
-            channel.flush();
+            channel.writeAndFlush(req, channel.voidPromise()); // 不需要结果，不必为每次发送创建ChannelPromise
             synchronized (re) {
                 try {
-                    re.wait(maxWaitForMs);
+                    // 回包可能在进入同步块之前就已经到达并通知过了（本机连接时很常见），只有还没有结果时才等待
+                    long deadline = System.currentTimeMillis() + maxWaitForMs;
+                    for (long left = maxWaitForMs; !re.isDone() && left > 0; left = deadline - System.currentTimeMillis()) {
+                        re.wait(left);
+                    }
                     // 执行下列代码时，要么是服务器已经回包了，将线程唤醒，要么是超时唤醒
                     // 服务器回包的话response必然有东西，不会是null
                     RpcResponse resp = re.response;
+                    if (null == resp && null != re.frame) { // 包体较大时IO线程上只解析了头部，在调用方线程上反序列化
+                        resp = decode(re, re.frame);
+                    }
                     if (null != resp) {
                         if (null != resp.error) { // 判断服务器端是否抛出了异常，有异常要在客户端再次抛出
-                            throw new RpcServerInvocationException("\n\n" //
-                                + "************************ RPC Remote Server Exception ***************************" + "\n" + re.getRequestInfo() + "\n" + resp.error + "\n" + "************************ RPC Remote Server Exception ***************************" + "\n");
+                            throw serverException(re, resp);
                         }
                         return resp;
                     }
-                    // 判断是否是异常导致的唤醒，没有异常就表明是超时唤醒
-                    if (null != re.cause) {
-                        throw new RpcClientCaughtException("\n\n" //
-                            + "************************ RPC Client Caught Exception ***************************" + "\n" + re.getRequestInfo() + "\n" + re.cause + "\n" + "************************ RPC Client Caught Exception ***************************" + "\n");
+                    if (null == re.cause && !re.disconnected) { // 等待超时，服务器端还在处理
+                        cancel(req.sequence);
                     }
-                    if (re.disconnected) { // 连接丢失
-                        throw new RpcConnectToServerException("connection to RPC Server [" + _host + ":" + _port + "] is LOST");
-                    }
-                    throw new RpcClientWaitTimeoutException("\n\n" //
-                        + "************************ RPC Client Timeout Exception **************************" + "\n" + re.getRequestInfo() + "************************ RPC Client Timeout Exception **************************" + "\n");
+                    throw failure(re);
                 } catch (InterruptedException e) {
                     log.error("wait RPC response INTERRUPTED, req:{}", req);
+                    cancel(req.sequence);
                     throw e;
                 }
             }
         } finally {
-            requestMap.remove(req.sequence);
+            removeRequest(req.sequence);
+        }
+    }
+
+    /**
+     * 请求已经不需要等待回包了，正在关闭的连接上没有等待回包的请求时就可以关闭了
+     *
+     * @return 请求是否还在等待回包，已经移除过的返回false
+     */
+    private boolean removeRequest(long sequence) {
+        boolean removed = null != requestMap.remove(sequence);
+        if (draining && requestMap.isEmpty()) {
+            channel.close();
+        }
+        return removed;
+    }
+
+    /**
+     * 普通调用等待超时或被中断时，按配置通知服务器端不再等待请求的结果
+     */
+    private void cancel(long sequence) {
+        if (cancelOnTimeout) {
+            sendCancel(sequence);
+        }
+    }
+
+    /**
+     * 通知服务器端不再等待请求的结果，见{@link RpcRequest#TYPE_CANCEL}
+     */
+    private void sendCancel(long sequence) {
+        if (channel.isActive()) {
+            channel.writeAndFlush(RpcRequest.createCancel(sequence), channel.voidPromise());
+        }
+    }
+
+    /**
+     * 发送一个{@link RpcRequest#TYPE_PING}请求并等待回包，用于预热连接和编解码
+     *
+     * @return 从发送到收到回包的耗时，单位纳秒
+     */
+    long ping() throws Throwable {
+        long begin = System.nanoTime();
+        send(RpcRequest.createPing());
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * 发起流式调用，发送请求后立即返回，结果通过返回的{@link RpcStreamEvent}边接收边读取
+     */
+    RpcStreamEvent openStream(RpcRequest req) {
+        req.sequence = idGen.incrementAndGet();
+        req.credit = streamWindow;
+        RpcStreamEvent re = new RpcStreamEvent(req);
+        requestMap.put(req.sequence, re);
+        if (draining) { // 拿到客户端实例之后才收到通知，换一个连接发送
+            removeRequest(req.sequence);
+            throw new RpcConnectToServerException("connection to RPC Server [" + _host + ":" + _port + "] is DRAINING");
+        }
+        if (!channel.isActive()) { // 发送前需要检查一下连接是否有效
+            removeRequest(req.sequence);
+            throw new RpcConnectToServerException("connection to RPC Server [" + _host + ":" + _port + "] is INACTIVE");
+        }
+        channel.writeAndFlush(req, channel.voidPromise());
+        re.scheduleIdleCheck(maxWaitForMs);
+        return re;
+    }
+
+    /**
+     * 反序列化只解析了头部的回包，失败时按客户端捕获的异常处理，由于数据包的边界是完整的，连接可以继续使用
+     */
+    private RpcResponse decode(RpcEvent re, RpcFrame frame) {
+        try {
+            RpcResponse resp = (RpcResponse) frame.decode();
+            resp.decodedBytes = frame.getLength();
+            return resp;
+        } catch (Exception e) {
+            re.cause = StringTools.printThrowable(e) + Thread.currentThread().getName();
+            throw failure(re);
+        }
+    }
+
+    /**
+     * 服务器端执行出错，在客户端再次抛出
+     */
+    private RpcException serverException(RpcEvent re, RpcResponse resp) {
+        if (resp.code == RpcResponse.CODE_OVERLOADED) { // 请求根本没有被执行，不需要输出详细的请求信息
+            return new RpcServerOverloadedException("RPC Server [" + _host + ":" + _port + "] " + resp.error);
+        }
+        // 只带上方法签名和sequence，请求参数可以在服务器端的出错报告中找到，避免出错风暴时在客户端重复拼接大字符串
+        return new RpcServerInvocationException("RPC Server [" + _host + ":" + _port + "] " + re.request.signature + " FAILED, sequence " + re.request.sequence + "\n" + resp.error, resp.code, resp.errorClass);
+    }
+
+    /**
+     * 没有等到回包时，根据唤醒原因生成对应的异常
+     */
+    private RuntimeException failure(RpcEvent re) {
+        // 判断是否是异常导致的唤醒，没有异常就表明是超时唤醒
+        if (null != re.cause) {
+            return new RpcClientCaughtException("\n\n" //
+                + "************************ RPC Client Caught Exception ***************************" + "\n" + re.getRequestInfo() + "\n" + re.cause + "\n" + "************************ RPC Client Caught Exception ***************************" + "\n");
+        }
+        if (re.disconnected) { // 连接丢失
+            return new RpcConnectToServerException("connection to RPC Server [" + _host + ":" + _port + "] is LOST");
         }
+        return new RpcClientWaitTimeoutException("\n\n" //
+            + "************************ RPC Client Timeout Exception **************************" + "\n" + re.getRequestInfo() + "************************ RPC Client Timeout Exception **************************" + "\n");
     }
 
     /**
@@ -213,19 +567,49 @@ class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
      * </pre>
      */
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, RpcResponse resp) throws Exception {
-        log.debug("RPC response: {}", resp);
-        RpcEvent re = requestMap.get(resp.sequence);
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+        log.debug("RPC response: {}", msg);
+        if (msg instanceof RpcResponse && ((RpcResponse) msg).type == RpcResponse.TYPE_GOAWAY) {
+            goAway();
+            return;
+        }
+        long sequence = msg instanceof RpcFrame ? ((RpcFrame) msg).sequence : ((RpcResponse) msg).sequence;
+        RpcEvent re = requestMap.get(sequence);
         if (null == re) { // 找不到对应的请求信息，说明请求已经不需要处理了，丢包即可
-            log.warn("sequence " + resp.sequence + " not found int requestMap");
+            log.warn("sequence " + sequence + " not found int requestMap");
+            return;
+        }
+        if (re instanceof RpcStreamEvent) {
+            ((RpcStreamEvent) re).onResponse(msg);
             return;
         }
-        re.response = resp;
+        if (msg instanceof RpcFrame) {
+            re.frame = (RpcFrame) msg;
+        } else {
+            re.response = (RpcResponse) msg;
+        }
         synchronized (re) {
             re.notifyAll();
         }
     }
 
+    /**
+     * 服务器即将关闭，从缓存中移除，之后的新请求会建立新的连接，已发出的请求继续在当前连接上等待回包
+     */
+    private void goAway() {
+        if (draining) { // 服务器处理完请求后会再通知一次，然后关闭连接
+            return;
+        }
+        draining = true;
+        log.info("RPC Server [{}:{}] is draining, {} requests in flight", _host, _port, requestMap.size());
+        synchronized (clients) {
+            clients.remove(_key, this);
+        }
+        if (requestMap.isEmpty()) {
+            channel.close();
+        }
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         log.info("RPC channelActive: {}", ctx.channel());
@@ -234,9 +618,8 @@ class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         log.info("RPC channelInactive: {}", ctx.channel());
-        String key = _host + ":" + _port;
         synchronized (clients) {
-            clients.remove(key); // 客户端被移除，下次请求时会重新建立连接
+            clients.remove(_key, this); // 客户端被移除，下次请求时会重新建立连接，收到过关闭通知时缓存中可能已经是新的连接了
         }
         // 所有等待回包处理的请求，全部按连接失败处理
         if (!requestMap.isEmpty()) {
@@ -278,6 +661,9 @@ class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
 
         public volatile RpcResponse response;
 
+        /** 包体较大时IO线程上只解析了头部，由等待回包的线程反序列化 */
+        public volatile RpcFrame frame;
+
         /** 请求发送时间，用于客户端判断是否超时 */
         public long sendTime = System.currentTimeMillis();
 
@@ -291,6 +677,13 @@ class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
             this.request = request;
         }
 
+        /**
+         * 是否已经收到回包或者确定失败了，不需要再等待
+         */
+        boolean isDone() {
+            return null != response || null != frame || disconnected || null != cause;
+        }
+
         /**
          * 报告异常时，输出本次请求的信息
          */
@@ -299,4 +692,183 @@ class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
                 maxWaitForMs) + "\n" + "客户端已等待时间 " + HumanReadableUtils.timeSpan(System.currentTimeMillis() - sendTime) + "\n" + "RPC请求内容      " + request + "\n";
         }
     }
+
+    /**
+     * <pre>
+     * 流式调用的请求/回包事件，同时也是读取结果的迭代器
+     *
+     * 服务器端分批发来的元素先放入缓冲，调用方逐个读取，每读完半个窗口就给服务器端追加一次额度
+     * 读取完毕、出错或者调用{@link #close()}后，事件会从requestMap中移除，之后服务器端再发来的数据将被丢弃
+     *
+     * 调用方超过maxWaitForMs没有读取（没有调用{@link #hasNext()}/{@link #next()}）时视为已放弃，
+     * 由IO线程关闭并通知服务器端停止发送，之后再读取会抛出{@link RpcStreamAbortedException}
+     * 这样丢弃了没读完的迭代器也不会一直占着requestMap、服务器端的业务线程，以及正在关闭的连接
+     * </pre>
+     */
+    public class RpcStreamEvent extends RpcEvent implements Iterator<Object>, AutoCloseable {
+
+        /** 已收到但尚未处理的回包，可能是{@link RpcResponse}或只解析了头部的{@link RpcFrame}，按收到的顺序处理 */
+        private ArrayDeque<Object> pending = new ArrayDeque<Object>();
+
+        /** 已反序列化、等待读取的元素 */
+        private ArrayDeque<Object> buffer = new ArrayDeque<Object>();
+
+        /** 服务器端是否已经发送完毕 */
+        private boolean ended;
+
+        /** 服务器端发来的结束标记，如果其中error不为null表示中途出错 */
+        private RpcResponse end;
+
+        /** 已读取但尚未归还给服务器端的额度 */
+        private int consumed;
+
+        /** 调用方最近一次读取结束的时间 */
+        private volatile long lastReadTime = System.currentTimeMillis();
+
+        /** 调用方是否正在读取（包括等待服务器端发来数据），读取中的不会被当作已放弃 */
+        private volatile boolean reading;
+
+        /** 是否因为调用方长时间没有读取而被关闭 */
+        private volatile boolean idleClosed;
+
+        public RpcStreamEvent(RpcRequest request) {
+            super(request);
+        }
+
+        /**
+         * 收到服务器端发来的一批元素或者结束标记，在IO线程上调用，反序列化和处理都留给读取方线程
+         */
+        synchronized void onResponse(Object msg) {
+            pending.add(msg);
+            notifyAll();
+        }
+
+        private void process(Object msg) {
+            RpcResponse resp = msg instanceof RpcFrame ? decode(this, (RpcFrame) msg) : (RpcResponse) msg;
+            if (resp.type == RpcResponse.TYPE_STREAM_DATA) {
+                buffer.addAll((List<?>) resp.result);
+            } else { // 服务器端找不到方法时会以普通回包返回错误，也一并按结束处理
+                ended = true;
+                end = resp;
+            }
+        }
+
+        /**
+         * 在IO线程上定时检查调用方是否已经放弃读取，见{@link #checkIdle()}
+         */
+        void scheduleIdleCheck(long delayMs) {
+            channel.eventLoop().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    checkIdle();
+                }
+            }, Math.max(1, delayMs), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * 超过maxWaitForMs没有读取时关闭，并通知服务器端停止发送，不需要获取锁，不会阻塞IO线程
+         */
+        private void checkIdle() {
+            if (requestMap.get(request.sequence) != this) { // 已经读完或关闭了
+                return;
+            }
+            long idle = System.currentTimeMillis() - lastReadTime;
+            if (reading || idle < maxWaitForMs) {
+                scheduleIdleCheck(reading ? maxWaitForMs : maxWaitForMs - idle);
+                return;
+            }
+            if (removeRequest(request.sequence)) {
+                idleClosed = true;
+                log.warn("RPC stream NOT read for {}ms, closed, req:{}", idle, request);
+                sendCancel(request.sequence);
+            }
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            reading = true;
+            try {
+                return awaitNext();
+            } finally {
+                reading = false;
+                lastReadTime = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * 等到有可读取的元素，或者服务器端已经发送完毕
+         */
+        private boolean awaitNext() {
+            long deadline = System.currentTimeMillis() + maxWaitForMs;
+            while (buffer.isEmpty()) {
+                if (!pending.isEmpty()) {
+                    try {
+                        process(pending.poll());
+                    } catch (RuntimeException e) {
+                        close();
+                        throw e;
+                    }
+                    continue;
+                }
+                if (ended) {
+                    close();
+                    if (null != end.error) {
+                        throw serverException(this, end);
+                    }
+                    return false;
+                }
+                if (idleClosed) {
+                    throw new RpcStreamAbortedException("RPC stream NOT read for " + maxWaitForMs + "ms, closed, req:" + request);
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (null != cause || disconnected || wait <= 0) {
+                    close();
+                    throw failure(this);
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    close();
+                    Thread.currentThread().interrupt();
+                    throw new RpcStreamAbortedException("wait RPC stream INTERRUPTED, req:" + request, e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized Object next() {
+            reading = true;
+            try {
+                return nextElement();
+            } finally {
+                reading = false;
+                lastReadTime = System.currentTimeMillis();
+            }
+        }
+
+        private Object nextElement() {
+            if (!awaitNext()) {
+                throw new NoSuchElementException();
+            }
+            Object value = buffer.poll();
+            consumed++;
+            if (!ended && consumed >= streamWindow / 2 && channel.isActive()) {
+                channel.writeAndFlush(RpcRequest.createCredit(request.sequence, consumed));
+                consumed = 0;
+            }
+            return value;
+        }
+
+        /**
+         * 不再读取结果，之后服务器端再发来的数据将被丢弃，还没有结束时通知服务器端中止发送
+         */
+        @Override
+        public synchronized void close() {
+            if (removeRequest(request.sequence) && !ended && null == cause && !disconnected) {
+                sendCancel(request.sequence);
+            }
+        }
+    }
 }
@@ -6,20 +6,37 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
 import org.etnaframework.core.logging.Log;
 import org.etnaframework.core.spring.SpringContext;
 import org.etnaframework.core.spring.annotation.Config;
+import org.etnaframework.core.spring.annotation.OnContextInited;
 import org.etnaframework.core.util.DatetimeUtils.Datetime;
 import org.etnaframework.core.util.NetUtils;
 import org.etnaframework.core.util.ReflectionTools;
 import org.etnaframework.core.util.ThreadUtils;
+import org.etnaframework.rpc.client.RpcClient.RpcStreamEvent;
+import org.etnaframework.rpc.annotation.RpcPriority;
 import org.etnaframework.rpc.annotation.RpcService;
 import org.etnaframework.rpc.codec.RpcRequest;
 import org.etnaframework.rpc.codec.RpcResponse;
+import org.etnaframework.rpc.exception.RpcClientWaitTimeoutException;
 import org.etnaframework.rpc.exception.RpcConnectToServerException;
+import org.etnaframework.rpc.exception.RpcServerOverloadedException;
 import org.etnaframework.rpc.server.RpcServer;
+import org.etnaframework.rpc.stat.RpcClientStat;
+import org.etnaframework.rpc.stat.RpcInFlightStat;
+import org.etnaframework.rpc.stream.RpcStreamObserver;
+import org.etnaframework.rpc.stream.RpcStreamType;
 import org.slf4j.Logger;
 import org.springframework.stereotype.Service;
 
@@ -56,8 +73,7 @@ public final class RpcClientFactory {
                     throw new IllegalArgumentException(interfaceClass.getName() + "必须是interface");
                 }
                 // 检测是否是当前进程提供的服务，如果是的话就直接调用了，不走网络通信
-                String remoteIP = NetUtils.getIP(new InetSocketAddress(host, port));
-                if (NetUtils.getLocalIPWith127001().contains(remoteIP)) { // 如果IP相同，接下来比对端口是否相同
+                if (isLocalIP(host, port)) { // 如果IP相同，接下来比对端口是否相同
                     boolean local = false;
                     Collection<RpcServer> list = SpringContext.getBeansOfType(RpcServer.class).values();
                     for (RpcServer rs : list) {
@@ -92,9 +108,167 @@ public final class RpcClientFactory {
         }
     }
 
+    private static boolean isLocalIP(String host, int port) {
+        String remoteIP = NetUtils.getIP(new InetSocketAddress(host, port));
+        return NetUtils.getLocalIPWith127001().contains(remoteIP);
+    }
+
+    /**
+     * 启动时按etna.rpc.client.warmUp的配置预热，连接失败等只记日志，不影响启动
+     */
+    @OnContextInited
+    protected void warmUp() {
+        if (warmUpTargets.trim().isEmpty()) {
+            return;
+        }
+        long begin = System.nanoTime();
+        int total = 0;
+        int ready = 0;
+        for (String target : warmUpTargets.split(",")) {
+            target = target.trim();
+            if (target.isEmpty()) {
+                continue;
+            }
+            total++;
+            int at = target.lastIndexOf('@');
+            int colon = target.lastIndexOf(':');
+            if (at <= 0 || colon < at) {
+                throw new IllegalArgumentException("RPC预热配置" + target + "格式错误，应为“接口类名@host:port”");
+            }
+            Class<?> interfaceClass;
+            try {
+                interfaceClass = Class.forName(target.substring(0, at));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("RPC预热配置" + target + "中的接口类不存在", e);
+            }
+            if (warmUp(interfaceClass, target.substring(at + 1, colon), Integer.parseInt(target.substring(colon + 1)), warmUpPings)) {
+                ready++;
+            }
+        }
+        log.info("RPC warm-up finished, {}/{} ready in {}ms", ready, total, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+    }
+
+    /**
+     * <pre>
+     * 预热远程服务接口，之后第一次调用时不用再等待创建代理、连接服务器、加载编解码相关的类，也不用进入相关的锁
+     *
+     * 依次生成代理并缓存、计算各方法的签名等、建立需要的连接（有低优先级方法时包括低优先级的连接），再发送pings次{@link RpcRequest#TYPE_PING}
+     * 旧版本的服务器端不认识ping，会当作找不到方法处理，此时pings请传0
+     * 本进程提供的服务不走网络，只生成代理；本机的RPC服务还没有配置好端口时无法判断是否是本进程的服务，不预热
+     * </pre>
+     *
+     * @return 是否预热成功，失败时只记日志
+     */
+    public static boolean warmUp(Class<?> interfaceClass, String host, int port, int pings) {
+        String key = interfaceClass.getName() + "@" + host + ":" + port;
+        long begin = System.nanoTime();
+        if (isLocalIP(host, port)) {
+            for (RpcServer rs : SpringContext.getBeansOfType(RpcServer.class).values()) {
+                if (rs.getPorts().isEmpty()) {
+                    log.warn("RPC warm-up {} SKIPPED, local RPC server {} is not configured yet", key, rs.getClass().getSimpleName());
+                    return false;
+                }
+            }
+        }
+        Object proxy = getInstance(interfaceClass, host, port);
+        if (!Proxy.isProxyClass(proxy.getClass())) {
+            log.info("RPC warm-up {} is local, RPC disabled", key);
+            return true;
+        }
+        long proxyNanos = System.nanoTime() - begin;
+        Set<Byte> priorities = ((RpcInterfaceProxyHandler) Proxy.getInvocationHandler(proxy)).prepare(interfaceClass);
+        long prepareNanos = System.nanoTime() - begin - proxyNanos;
+        long firstPingNanos = 0;
+        long lastPingNanos = 0;
+        try {
+            for (byte priority : priorities) {
+                RpcClient client = RpcClient.getInstance(host, port, priority);
+                for (int i = 0; i < pings; i++) {
+                    lastPingNanos = client.ping();
+                    if (0 == firstPingNanos) {
+                        firstPingNanos = lastPingNanos;
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            log.warn("RPC warm-up {} FAILED in {}ms: {}", key, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin), e.toString());
+            return false;
+        }
+        long connectNanos = System.nanoTime() - begin - proxyNanos - prepareNanos;
+        log.info("RPC warm-up {} ready in {}ms: proxy {}us, methods {}us, connections {} with {} ping(s) {}us, first ping {}us, last ping {}us", key, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin),
+            proxyNanos / 1000, prepareNanos / 1000, priorities.size(), pings, connectNanos / 1000, firstPingNanos / 1000, lastPingNanos / 1000);
+        return true;
+    }
+
+    /**
+     * 当前进程作为客户端时，各个远程服务器host:port正在等待回包的请求数
+     */
+    public static Map<String, Integer> getInFlight() {
+        return RpcClient.getInFlight();
+    }
+
+    /**
+     * 当前进程作为客户端时，按远程服务器和方法签名汇总正在等待回包的请求，并列出已等待时间达到maxWaitForMs的nearTimeoutPercent%的请求，不阻塞正在进行的调用
+     *
+     * @param groups 汇总结果，按host:port、方法签名排序
+     * @param nearTimeout 快要超时的请求，按已等待时间从长到短排序，最多maxNearTimeout个
+     */
+    public static void inspectInFlight(List<RpcInFlightStat> groups, List<RpcInFlightStat.Call> nearTimeout, int nearTimeoutPercent, int maxNearTimeout) {
+        RpcClient.inspectInFlight(groups, nearTimeout, nearTimeoutPercent, maxNearTimeout);
+    }
+
+    /** 当前线程临时指定的请求优先级，见{@link #withPriority(byte, Callable)} */
+    private static final ThreadLocal<Byte> currentPriority = new ThreadLocal<Byte>();
+
+    /**
+     * <pre>
+     * 在指定的请求优先级下执行task，期间当前线程发起的所有RPC调用都使用该优先级，优先于{@link RpcPriority}的声明
+     * 如夜间的批处理任务：RpcClientFactory.withPriority(RpcRequest.PRIORITY_LOW, task)
+     * </pre>
+     */
+    public static <T> T withPriority(byte priority, Callable<T> task) throws Exception {
+        Byte old = currentPriority.get();
+        currentPriority.set(priority);
+        try {
+            return task.call();
+        } finally {
+            if (null == old) {
+                currentPriority.remove();
+            } else {
+                currentPriority.set(old);
+            }
+        }
+    }
+
+    /**
+     * 获取调用方法时使用的请求优先级
+     */
+    private static byte getPriority(Method method) {
+        Byte p = currentPriority.get();
+        if (null != p) {
+            return p;
+        }
+        p = method2priority.get(method);
+        if (null == p) {
+            RpcPriority conf = method.getAnnotation(RpcPriority.class); // 方法上的优先，其次是接口上的
+            if (null == conf) {
+                conf = method.getDeclaringClass().getAnnotation(RpcPriority.class);
+            }
+            p = null == conf ? RpcRequest.PRIORITY_NORMAL : conf.value();
+            method2priority.put(method, p);
+        }
+        return p;
+    }
+
+    /** 方法到{@link RpcPriority}声明的优先级的映射，缓存起来减少重复运算 */
+    private static Map<Method, Byte> method2priority = new ConcurrentHashMap<Method, Byte>();
+
     /** 方法到方法签名的映射，缓存起来减少重复运算 */
     private static Map<Method, String> method2signature = new ConcurrentHashMap<Method, String>();
 
+    /** 方法到结果返回方式的映射，缓存起来减少重复运算 */
+    private static Map<Method, RpcStreamType> method2streamType = new ConcurrentHashMap<Method, RpcStreamType>();
+
     /** 当请求远程服务器失败时，客户端最多重试的次数 */
     @Config(value = "etna.rpc.client.maxRetryTime", resetable = false)
     private static int maxRetryTime = 1;
@@ -103,6 +277,45 @@ public final class RpcClientFactory {
     @Config(value = "etna.rpc.client.retryIdleMs", resetable = false)
     private static long retryIdleMs = Datetime.MILLIS_PER_SECOND;
 
+    /** 启动时预热的远程服务接口，格式为“接口类名@host:port”，多个用逗号分隔，见{@link #warmUp(Class, String, int, int)} */
+    @Config(value = "etna.rpc.client.warmUp", resetable = false)
+    private static String warmUpTargets = "";
+
+    /**
+     * <pre>
+     * 预热时每个连接发送的{@link RpcRequest#TYPE_PING}次数，默认为0，只建立连接
+     * 不认识ping的旧版本服务器端会当作找不到方法处理并发出报错邮件，确认服务器端都已升级后再打开
+     * </pre>
+     */
+    @Config(value = "etna.rpc.client.warmUpPings", resetable = false)
+    private static int warmUpPings = 0;
+
+    /**
+     * 获取方法签名，第一次计算后缓存起来
+     */
+    private static String getSignature(Method method) {
+        String signature = method2signature.get(method);
+        if (null == signature) {
+            synchronized (method2signature) {
+                signature = method2signature.get(method);
+                if (null == signature) {
+                    signature = ReflectionTools.getMethodSingature(method);
+                    method2signature.put(method, signature);
+                }
+            }
+        }
+        return signature;
+    }
+
+    private static RpcStreamType getStreamType(Method method) {
+        RpcStreamType streamType = method2streamType.get(method);
+        if (null == streamType) {
+            streamType = RpcStreamType.of(method);
+            method2streamType.put(method, streamType);
+        }
+        return streamType;
+    }
+
     /**
      * 客户端通过接口生成代理实例的工具类，用于返回接口实例，内部通过网络访问远程服务器的资源
      */
@@ -112,47 +325,141 @@ public final class RpcClientFactory {
 
         private int port;
 
+        /** 各个方法的客户端调用统计，缓存起来避免每次调用都拼接key */
+        private Map<Method, RpcClientStat> stats = new ConcurrentHashMap<Method, RpcClientStat>();
+
+        /** 各个方法低优先级调用的客户端统计，与普通调用分开统计 */
+        private Map<Method, RpcClientStat> lowStats = new ConcurrentHashMap<Method, RpcClientStat>();
+
         public RpcInterfaceProxyHandler(String host, int port) {
             this.host = host;
             this.port = port;
         }
 
+        /**
+         * 预热时提前计算接口各方法的签名、返回方式、优先级和统计对象
+         *
+         * @return 各方法声明的请求优先级，对应需要建立的连接
+         */
+        Set<Byte> prepare(Class<?> interfaceClass) {
+            Set<Byte> priorities = new TreeSet<Byte>();
+            for (Method method : interfaceClass.getMethods()) {
+                String signature = getSignature(method);
+                getStreamType(method);
+                byte priority = getPriority(method);
+                Map<Method, RpcClientStat> statMap = priority == RpcRequest.PRIORITY_LOW ? lowStats : stats;
+                if (!statMap.containsKey(method)) {
+                    statMap.put(method, RpcClientStat.get(RpcClient.getKey(host, port, priority), signature));
+                }
+                priorities.add(priority);
+            }
+            return priorities;
+        }
+
         @Override
+        @SuppressWarnings("unchecked")
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            String signature = method2signature.get(method);
-            if (null == signature) {
-                synchronized (method2signature) {
-                    signature = method2signature.get(method);
-                    if (null == signature) {
-                        signature = ReflectionTools.getMethodSingature(method);
-                        method2signature.put(method, signature);
-                    }
-                }
+            String signature = getSignature(method);
+            RpcStreamType streamType = getStreamType(method);
+            RpcStreamObserver<Object> observer = null;
+            if (streamType == RpcStreamType.OBSERVER) { // 回调对象留在本地，不传给服务器端
+                args = args.clone();
+                observer = (RpcStreamObserver<Object>) args[args.length - 1];
+                args[args.length - 1] = null;
             }
+            byte priority = getPriority(method);
+            Map<Method, RpcClientStat> statMap = priority == RpcRequest.PRIORITY_LOW ? lowStats : stats;
+            RpcClientStat stat = statMap.get(method);
+            if (null == stat) {
+                stat = RpcClientStat.get(RpcClient.getKey(host, port, priority), signature);
+                statMap.put(method, stat);
+            }
+            stat.addCall();
             RpcRequest req = new RpcRequest(signature, args);
+            req.priority = priority;
             Object result = null;
-            for (int i = 0; i <= maxRetryTime; i++) {
-                try {
-                    RpcClient client = RpcClient.getInstance(host, port);
-                    RpcResponse resp = client.send(req);
-                    result = resp.result;
-                    break;
-                } catch (IOException ex) {
-                    // 如果是刚好重启的那一瞬间导致连接断开，重试一下
-                    // 否则就直接把异常抛出去，如果是重试的最后一次，也要将异常抛出去
-                    if (!ex.getMessage().contains("Connection reset by peer") || i == maxRetryTime) {
-                        throw ex;
-                    }
-                    ThreadUtils.sleep(retryIdleMs);
-                } catch (RpcConnectToServerException ex) {
-                    // 连不上远程服务器，重试，最后一次将异常抛出去
-                    if (i == maxRetryTime) {
-                        throw ex;
+            RpcResponse resp = null;
+            long begin = System.nanoTime();
+            try {
+                for (int i = 0; i <= maxRetryTime; i++) {
+                    RpcClient client = null;
+                    try {
+                        client = RpcClient.getInstance(host, port, priority);
+                        if (streamType.isStreaming()) {
+                            result = client.openStream(req);
+                            break;
+                        }
+                        resp = client.send(req);
+                        result = resp.result;
+                        break;
+                    } catch (IOException ex) {
+                        // 如果是刚好重启的那一瞬间导致连接断开，重试一下
+                        // 否则就直接把异常抛出去，如果是重试的最后一次，也要将异常抛出去
+                        if (!ex.getMessage().contains("Connection reset by peer") || i == maxRetryTime) {
+                            throw ex;
+                        }
+                        stat.addRetry();
+                        ThreadUtils.sleep(retryIdleMs);
+                    } catch (RpcConnectToServerException ex) {
+                        if (null != client && client.isDraining() && i < maxRetryTime) { // 服务器正在优雅关闭，不用等待，马上换新连接重试
+                            stat.addRetry();
+                            continue;
+                        }
+                        // 连不上远程服务器，重试，最后一次将异常抛出去
+                        stat.addConnectFailure();
+                        if (i == maxRetryTime) {
+                            throw ex;
+                        }
+                        stat.addRetry();
+                        ThreadUtils.sleep(retryIdleMs);
                     }
-                    ThreadUtils.sleep(retryIdleMs);
                 }
+            } catch (RpcConnectToServerException ex) { // 已经在上面计数了
+                throw ex;
+            } catch (RpcClientWaitTimeoutException ex) {
+                stat.addTimeout();
+                throw ex;
+            } catch (RpcServerOverloadedException ex) {
+                stat.addOverloaded();
+                throw ex;
+            } catch (Throwable ex) {
+                stat.addError();
+                throw ex;
+            } finally {
+                stat.getLatency().record(System.nanoTime() - begin);
+                stat.addBytes(req.encodedBytes, null == resp ? 0 : resp.decodedBytes);
+            }
+            if (streamType.isStreaming()) {
+                return toStreamResult(streamType, (RpcStreamEvent) result, observer);
             }
             return result;
         }
+
+        /**
+         * 将流式调用的结果转换成接口方法声明的返回形式
+         */
+        private Object toStreamResult(RpcStreamType streamType, final RpcStreamEvent stream, RpcStreamObserver<Object> observer) {
+            switch (streamType) {
+            case ITERATOR:
+                return stream;
+            case STREAM:
+                return StreamSupport.stream(Spliterators.spliteratorUnknownSize(stream, Spliterator.ORDERED), false).onClose(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        stream.close();
+                    }
+                });
+            default:
+                try {
+                    while (stream.hasNext()) {
+                        observer.onNext(stream.next());
+                    }
+                } finally {
+                    stream.close();
+                }
+                return null;
+            }
+        }
     }
 }
@@ -0,0 +1,282 @@
+package org.etnaframework.rpc.cmd;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import org.etnaframework.core.web.HttpEvent;
+import org.etnaframework.core.web.annotation.Cmd;
+import org.etnaframework.core.web.annotation.CmdPath;
+import org.etnaframework.core.web.cmd.HttpCmd;
+import org.etnaframework.core.web.constant.CmdCategory;
+import org.etnaframework.rpc.client.RpcClientFactory;
+import org.etnaframework.rpc.server.RpcAdmissionController;
+import org.etnaframework.rpc.server.RpcBulkheadExecutor;
+import org.etnaframework.rpc.server.RpcMappers;
+import org.etnaframework.rpc.server.RpcMeta;
+import org.etnaframework.rpc.server.RpcServerHandler;
+import org.etnaframework.rpc.stat.RpcChannelStat;
+import org.etnaframework.rpc.stat.RpcClientStat;
+import org.etnaframework.rpc.stat.RpcHistogram;
+import org.etnaframework.rpc.stat.RpcStageStat;
+import org.etnaframework.rpc.stat.RpcTrafficHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+
+/**
+ * <pre>
+ * 以Prometheus文本格式（text format 0.0.4）导出RPC服务器端和客户端的监控指标，供采集系统定时抓取
+ *
+ * 所有数值都是直接读取的累计计数，不复制耗时分布的快照，也不会阻塞记录
+ * 输出的大小只与方法数、线程池数和连接数有关，与调用量无关
+ * 由于是通过模板输出的，Content-Type为text/html，Prometheus 3.x需要在抓取配置中设置fallback_scrape_protocol: PrometheusText0.0.4
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@Controller
+@CmdPath("/metrics/rpc")
+public class MetricsRpcCmd extends HttpCmd {
+
+    /** 耗时分布导出时的桶边界，单位秒 */
+    private static final String[] BUCKET_LABELS = {
+        "0.0001",
+        "0.00025",
+        "0.0005",
+        "0.001",
+        "0.0025",
+        "0.005",
+        "0.01",
+        "0.025",
+        "0.05",
+        "0.1",
+        "0.25",
+        "0.5",
+        "1",
+        "2.5",
+        "5",
+        "10"
+    };
+
+    /** 与{@link #BUCKET_LABELS}对应的纳秒数 */
+    private static final long[] BUCKET_NANOS = new long[BUCKET_LABELS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_LABELS.length; i++) {
+            BUCKET_NANOS[i] = (long) (Double.parseDouble(BUCKET_LABELS[i]) * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    @Autowired
+    private RpcMappers rpcMappers;
+
+    @Autowired
+    private RpcServerHandler rpcServerHandler;
+
+    @Override
+    @Cmd(desc = "以Prometheus文本格式导出rpc监控指标", category = CmdCategory.SYSTEM)
+    public void index(HttpEvent he) throws Throwable {
+        StringBuilder sb = new StringBuilder(8192);
+        long[] buckets = new long[BUCKET_NANOS.length];
+        Map<String, RpcMeta> metas = rpcMappers.getReverseRpcAllSortedMap();
+
+        header(sb, "etna_rpc_server_calls_total", "counter", "RPC calls completed by the server");
+        for (RpcMeta rm : metas.values()) {
+            sample(sb, "etna_rpc_server_calls_total", "method", rm.getName(), rm.getStat().getAllNum());
+        }
+        header(sb, "etna_rpc_server_errors_total", "counter", "RPC calls whose implementation threw an exception");
+        for (RpcMeta rm : metas.values()) {
+            sample(sb, "etna_rpc_server_errors_total", "method", rm.getName(), rm.getErrors());
+        }
+        header(sb, "etna_rpc_server_shed_total", "counter", "RPC calls rejected without execution because the server was overloaded");
+        for (RpcMeta rm : metas.values()) {
+            sample(sb, "etna_rpc_server_shed_total", "method", rm.getName(), rm.getShed());
+        }
+        header(sb, "etna_rpc_server_low_priority_calls_total", "counter", "Low priority RPC requests received");
+        for (RpcMeta rm : metas.values()) {
+            sample(sb, "etna_rpc_server_low_priority_calls_total", "method", rm.getName(), rm.getLowPriority());
+        }
+        header(sb, "etna_rpc_server_coalesced_total", "counter", "RPC calls answered with the result of an identical concurrent call instead of being executed");
+        for (RpcMeta rm : metas.values()) {
+            if (null != rm.getCoalescer()) {
+                sample(sb, "etna_rpc_server_coalesced_total", "method", rm.getName(), rm.getCoalescer().getCoalesced());
+            }
+        }
+        header(sb, "etna_rpc_server_cache_hits_total", "counter", "RPC calls answered from the server-side result cache");
+        for (RpcMeta rm : metas.values()) {
+            if (null != rm.getCache()) {
+                sample(sb, "etna_rpc_server_cache_hits_total", "method", rm.getName(), rm.getCache().getHits());
+            }
+        }
+        header(sb, "etna_rpc_server_cache_misses_total", "counter", "RPC calls to cacheable methods that had to be executed");
+        for (RpcMeta rm : metas.values()) {
+            if (null != rm.getCache()) {
+                sample(sb, "etna_rpc_server_cache_misses_total", "method", rm.getName(), rm.getCache().getMisses());
+            }
+        }
+        header(sb, "etna_rpc_server_cache_evictions_total", "counter", "Cached RPC results evicted because the cache exceeded its maximum weight");
+        for (RpcMeta rm : metas.values()) {
+            if (null != rm.getCache()) {
+                sample(sb, "etna_rpc_server_cache_evictions_total", "method", rm.getName(), rm.getCache().getEvictions());
+            }
+        }
+        header(sb, "etna_rpc_server_cache_weight", "gauge", "Total weight of the cached RPC results");
+        for (RpcMeta rm : metas.values()) {
+            if (null != rm.getCache()) {
+                sample(sb, "etna_rpc_server_cache_weight", "method", rm.getName(), rm.getCache().getWeight());
+            }
+        }
+        header(sb, "etna_rpc_server_stage_seconds", "histogram", "RPC server latency per stage: decode, queue, execute, encode, write");
+        for (RpcMeta rm : metas.values()) {
+            RpcStageStat stages = rm.getStages();
+            histogram(sb, "etna_rpc_server_stage_seconds", "method", rm.getName(), "stage", "decode", stages.getDecode(), buckets);
+            histogram(sb, "etna_rpc_server_stage_seconds", "method", rm.getName(), "stage", "queue", stages.getQueue(), buckets);
+            histogram(sb, "etna_rpc_server_stage_seconds", "method", rm.getName(), "stage", "execute", stages.getExecute(), buckets);
+            histogram(sb, "etna_rpc_server_stage_seconds", "method", rm.getName(), "stage", "encode", stages.getEncode(), buckets);
+            histogram(sb, "etna_rpc_server_stage_seconds", "method", rm.getName(), "stage", "write", stages.getWrite(), buckets);
+        }
+
+        RpcAdmissionController admission = rpcServerHandler.getAdmission();
+        header(sb, "etna_rpc_server_in_flight", "gauge", "RPC requests received and not yet answered");
+        sample(sb, "etna_rpc_server_in_flight", null, null, admission.getInFlight());
+        header(sb, "etna_rpc_server_rejected_total", "counter", "RPC requests rejected because max in flight was reached");
+        sample(sb, "etna_rpc_server_rejected_total", null, null, admission.getRejected());
+        header(sb, "etna_rpc_server_dropped_total", "counter", "RPC requests dropped because they queued too long");
+        sample(sb, "etna_rpc_server_dropped_total", null, null, admission.getDropped());
+        header(sb, "etna_rpc_server_low_priority_shed_total", "counter", "Low priority RPC requests rejected or dropped by admission control");
+        sample(sb, "etna_rpc_server_low_priority_shed_total", null, null, admission.getLowPriorityShed());
+        header(sb, "etna_rpc_server_read_paused_total", "counter", "Times reading from a connection was paused because it had too many requests in flight");
+        sample(sb, "etna_rpc_server_read_paused_total", null, null, rpcServerHandler.getReadPaused());
+
+        header(sb, "etna_rpc_bulkhead_active_threads", "gauge", "Threads executing in each RPC bulkhead");
+        for (RpcBulkheadExecutor b : rpcMappers.getBulkheads()) {
+            sample(sb, "etna_rpc_bulkhead_active_threads", "bulkhead", b.getName(), b.getActive());
+        }
+        header(sb, "etna_rpc_bulkhead_queue_depth", "gauge", "Tasks waiting in each RPC bulkhead queue");
+        for (RpcBulkheadExecutor b : rpcMappers.getBulkheads()) {
+            sample(sb, "etna_rpc_bulkhead_queue_depth", "bulkhead", b.getName(), b.getQueued());
+        }
+        header(sb, "etna_rpc_bulkhead_rejected_total", "counter", "Tasks rejected by each RPC bulkhead because it was full");
+        for (RpcBulkheadExecutor b : rpcMappers.getBulkheads()) {
+            sample(sb, "etna_rpc_bulkhead_rejected_total", "bulkhead", b.getName(), b.getRejected());
+        }
+
+        header(sb, "etna_rpc_client_in_flight", "gauge", "RPC calls sent by this process and waiting for a response");
+        for (Entry<String, Integer> e : RpcClientFactory.getInFlight().entrySet()) {
+            sample(sb, "etna_rpc_client_in_flight", "endpoint", e.getKey(), e.getValue());
+        }
+        List<RpcClientStat> clientStats = RpcClientStat.getAll();
+        header(sb, "etna_rpc_client_calls_total", "counter", "RPC calls made by this process, retries counted once");
+        for (RpcClientStat c : clientStats) {
+            sample(sb, "etna_rpc_client_calls_total", c, c.getCalls());
+        }
+        header(sb, "etna_rpc_client_errors_total", "counter", "RPC calls that failed with a server or client exception");
+        for (RpcClientStat c : clientStats) {
+            sample(sb, "etna_rpc_client_errors_total", c, c.getErrors());
+        }
+        header(sb, "etna_rpc_client_timeouts_total", "counter", "RPC calls that timed out waiting for a response");
+        for (RpcClientStat c : clientStats) {
+            sample(sb, "etna_rpc_client_timeouts_total", c, c.getTimeouts());
+        }
+        header(sb, "etna_rpc_client_connect_failures_total", "counter", "Attempts that could not connect or lost the connection");
+        for (RpcClientStat c : clientStats) {
+            sample(sb, "etna_rpc_client_connect_failures_total", c, c.getConnectFailures());
+        }
+        header(sb, "etna_rpc_client_retries_total", "counter", "RPC call attempts retried");
+        for (RpcClientStat c : clientStats) {
+            sample(sb, "etna_rpc_client_retries_total", c, c.getRetries());
+        }
+        header(sb, "etna_rpc_client_overloaded_total", "counter", "RPC calls rejected by an overloaded server");
+        for (RpcClientStat c : clientStats) {
+            sample(sb, "etna_rpc_client_overloaded_total", c, c.getOverloaded());
+        }
+        header(sb, "etna_rpc_client_sent_bytes_total", "counter", "Serialized request bytes per method");
+        for (RpcClientStat c : clientStats) {
+            sample(sb, "etna_rpc_client_sent_bytes_total", c, c.getBytesSent());
+        }
+        header(sb, "etna_rpc_client_received_bytes_total", "counter", "Serialized response bytes per method");
+        for (RpcClientStat c : clientStats) {
+            sample(sb, "etna_rpc_client_received_bytes_total", c, c.getBytesReceived());
+        }
+        header(sb, "etna_rpc_client_latency_seconds", "histogram", "RPC call latency seen by the caller, including network, queueing and serialization");
+        for (RpcClientStat c : clientStats) {
+            histogram(sb, "etna_rpc_client_latency_seconds", "endpoint", c.getEndpoint(), "method", c.getSignature(), c.getLatency(), buckets);
+        }
+
+        header(sb, "etna_rpc_connection_received_bytes_total", "counter", "Bytes received on each RPC connection");
+        traffic(sb, "etna_rpc_connection_received_bytes_total", RpcTrafficHandler.SERVER, true);
+        traffic(sb, "etna_rpc_connection_received_bytes_total", RpcTrafficHandler.CLIENT, true);
+        header(sb, "etna_rpc_connection_sent_bytes_total", "counter", "Bytes sent on each RPC connection");
+        traffic(sb, "etna_rpc_connection_sent_bytes_total", RpcTrafficHandler.SERVER, false);
+        traffic(sb, "etna_rpc_connection_sent_bytes_total", RpcTrafficHandler.CLIENT, false);
+
+        he.set("metrics", sb.toString());
+        he.setAccessLogContent("[RPC Metrics]");
+        he.renderHtml("/org/etnaframework/rpc/cmd/metrics_rpc.html");
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String labelValue, long value) {
+        sb.append(name);
+        if (null != label) {
+            sb.append('{').append(label).append("=\"");
+            escape(sb, labelValue);
+            sb.append("\"}");
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, RpcClientStat c, long value) {
+        labels(sb.append(name), "endpoint", c.getEndpoint(), "method", c.getSignature()).append("} ").append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder sb, String name, String label1, String value1, String label2, String value2, RpcHistogram h, long[] buckets) {
+        long count = h.countAtOrBelow(BUCKET_NANOS, buckets);
+        for (int i = 0; i < buckets.length; i++) {
+            labels(sb.append(name).append("_bucket"), label1, value1, label2, value2).append(",le=\"").append(BUCKET_LABELS[i]).append("\"} ").append(buckets[i]).append('\n');
+        }
+        labels(sb.append(name).append("_bucket"), label1, value1, label2, value2).append(",le=\"+Inf\"} ").append(count).append('\n');
+        labels(sb.append(name).append("_sum"), label1, value1, label2, value2).append("} ").append(h.getSum() / 1e9).append('\n');
+        labels(sb.append(name).append("_count"), label1, value1, label2, value2).append("} ").append(count).append('\n');
+    }
+
+    /**
+     * 输出两个标签，不带结尾的右括号，方便再追加标签
+     */
+    private static StringBuilder labels(StringBuilder sb, String label1, String value1, String label2, String value2) {
+        sb.append('{').append(label1).append("=\"");
+        escape(sb, value1);
+        sb.append("\",").append(label2).append("=\"");
+        escape(sb, value2);
+        return sb.append('"');
+    }
+
+    private static void traffic(StringBuilder sb, String name, RpcTrafficHandler handler, boolean in) {
+        for (RpcChannelStat c : handler.getChannels()) {
+            sb.append(name).append("{side=\"").append(handler.getSide()).append("\",remote=\"");
+            escape(sb, c.getRemote());
+            sb.append("\"} ").append(in ? c.getBytesIn() : c.getBytesOut()).append('\n');
+        }
+    }
+
+    /**
+     * 标签值中的反斜杠、双引号和换行需要转义
+     */
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+}
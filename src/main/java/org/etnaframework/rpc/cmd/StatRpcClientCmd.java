@@ -0,0 +1,51 @@
+package org.etnaframework.rpc.cmd;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.etnaframework.core.util.SystemInfo;
+import org.etnaframework.core.web.HttpEvent;
+import org.etnaframework.core.web.annotation.Cmd;
+import org.etnaframework.core.web.annotation.CmdPath;
+import org.etnaframework.core.web.cmd.HttpCmd;
+import org.etnaframework.core.web.constant.CmdCategory;
+import org.etnaframework.rpc.client.RpcClientFactory;
+import org.etnaframework.rpc.stat.RpcChannelStat;
+import org.etnaframework.rpc.stat.RpcClientStat;
+import org.etnaframework.rpc.stat.RpcInFlightStat;
+import org.etnaframework.rpc.stat.RpcTrafficHandler;
+import org.springframework.stereotype.Controller;
+
+/**
+ * 统计本进程作为客户端调用各个远程服务器的情况，用于找出是哪个依赖拖慢了调用方
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@Controller
+@CmdPath("/stat/rpc_client")
+public class StatRpcClientCmd extends HttpCmd {
+
+    /** 最多列出的快要超时的请求个数 */
+    private static final int MAX_NEAR_TIMEOUT = 100;
+
+    @Override
+    @Cmd(desc = "显示rpc客户端调用统计", category = CmdCategory.SYSTEM)
+    public void index(HttpEvent he) throws Throwable {
+        boolean all = he.getBool("all", false); // 耗时分布默认显示最近一分钟的，为true时显示累计的
+        he.set("all", all);
+        he.set("url", he.getRequestURL());
+        he.set("title", SystemInfo.COMMAND_SHORT + " RPC Client");
+        he.set("stats", RpcClientStat.getAll());
+        he.set("connections", new ArrayList<RpcChannelStat>(RpcTrafficHandler.CLIENT.getChannels()));
+        he.set("inFlight", RpcClientFactory.getInFlight());
+        int nearTimeoutPercent = he.getInt("nearTimeoutPercent", 80); // 已等待时间达到maxWaitForMs的多少百分比算快要超时
+        List<RpcInFlightStat> inFlightGroups = new ArrayList<RpcInFlightStat>();
+        List<RpcInFlightStat.Call> nearTimeout = new ArrayList<RpcInFlightStat.Call>();
+        RpcClientFactory.inspectInFlight(inFlightGroups, nearTimeout, nearTimeoutPercent, MAX_NEAR_TIMEOUT);
+        he.set("nearTimeoutPercent", nearTimeoutPercent);
+        he.set("inFlightGroups", inFlightGroups);
+        he.set("nearTimeout", nearTimeout);
+        he.setAccessLogContent("[RPC Client List]");
+        he.renderHtml("/org/etnaframework/rpc/cmd/stat_rpc_client.html");
+    }
+}
@@ -13,8 +13,10 @@ import org.etnaframework.core.web.annotation.Cmd;
 import org.etnaframework.core.web.annotation.CmdPath;
 import org.etnaframework.core.web.cmd.HttpCmd;
 import org.etnaframework.core.web.constant.CmdCategory;
+import org.etnaframework.rpc.server.RpcBulkheadExecutor;
 import org.etnaframework.rpc.server.RpcMappers;
 import org.etnaframework.rpc.server.RpcMeta;
+import org.etnaframework.rpc.server.RpcServerHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 
@@ -25,17 +27,21 @@ import org.springframework.stereotype.Controller;
  * @since 2016-08-08
  */
 @Controller
-@CmdPath("/stat/cache")
+@CmdPath("/stat/rpc")
 public class StatRpcCmd extends HttpCmd {
 
     @Autowired
     private RpcMappers rpcMappers;
 
+    @Autowired
+    private RpcServerHandler rpcServerHandler;
+
     @Override
     @Cmd(desc = "显示rpc服务器接口列表", category = CmdCategory.SYSTEM)
     public void index(HttpEvent he) throws Throwable {
         boolean timesOrder = he.getBool("timesOrder", false);
         boolean avgOrder = he.getBool("avgOrder", false);
+        boolean stageAll = he.getBool("stageAll", false); // 各阶段耗时分布默认显示最近一分钟的，为true时显示累计的
 
         Map<String, RpcMeta> rpc_urls_map = rpcMappers.getReverseRpcAllSortedMap();
 
@@ -77,6 +83,17 @@ public class StatRpcCmd extends HttpCmd {
         he.set("url", he.getRequestURL());
         he.set("title", SystemInfo.COMMAND_SHORT + " RPC");
         he.set("rpcs", entry_list);
+        he.set("bulkheads", new ArrayList<RpcBulkheadExecutor>(rpcMappers.getBulkheads()));
+        List<RpcMeta> caches = new ArrayList<RpcMeta>();
+        for (RpcMeta rm : rpc_urls_map.values()) {
+            if (null != rm.getCache()) {
+                caches.add(rm);
+            }
+        }
+        he.set("caches", caches);
+        he.set("admission", rpcServerHandler.getAdmission());
+        he.set("readPaused", rpcServerHandler.getReadPaused());
+        he.set("stageAll", stageAll);
         he.setAccessLogContent("[RPC List]");
         he.renderHtml("/org/etnaframework/rpc/cmd/stat_rpc.html");
     }
@@ -0,0 +1,34 @@
+package org.etnaframework.rpc.cmd;
+
+import org.etnaframework.core.util.SystemInfo;
+import org.etnaframework.core.web.HttpEvent;
+import org.etnaframework.core.web.annotation.Cmd;
+import org.etnaframework.core.web.annotation.CmdPath;
+import org.etnaframework.core.web.cmd.HttpCmd;
+import org.etnaframework.core.web.constant.CmdCategory;
+import org.etnaframework.rpc.server.RpcMappers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+
+/**
+ * 显示各个RPC方法最慢的调用和最近超过阈值的调用，用于找到造成耗时尖刺的具体请求
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@Controller
+@CmdPath("/stat/rpc_slow")
+public class StatRpcSlowCmd extends HttpCmd {
+
+    @Autowired
+    private RpcMappers rpcMappers;
+
+    @Override
+    @Cmd(desc = "显示rpc服务器慢调用", category = CmdCategory.SYSTEM)
+    public void index(HttpEvent he) throws Throwable {
+        he.set("title", SystemInfo.COMMAND_SHORT + " RPC Slow Calls");
+        he.set("rpcs", rpcMappers.getReverseRpcAllSortedMap().values());
+        he.setAccessLogContent("[RPC Slow Calls]");
+        he.renderHtml("/org/etnaframework/rpc/cmd/stat_rpc_slow.html");
+    }
+}
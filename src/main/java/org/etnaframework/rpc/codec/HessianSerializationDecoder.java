@@ -6,7 +6,9 @@ import org.etnaframework.core.logging.Log;
 import org.etnaframework.core.util.ZipTools;
 import org.slf4j.Logger;
 import com.caucho.hessian.io.HessianSerializerInput;
+import org.etnaframework.rpc.codec.RpcFrame.PayloadDecoder;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandler;
 import io.netty.handler.codec.ByteToMessageDecoder;
@@ -17,7 +19,7 @@ import io.netty.handler.codec.ByteToMessageDecoder;
  * @author BlackCat
  * @since 2016-08-09
  */
-public class HessianSerializationDecoder extends ByteToMessageDecoder {
+public class HessianSerializationDecoder extends ByteToMessageDecoder implements PayloadDecoder {
 
     protected final Logger log = Log.getLogger(getClass());
 
@@ -25,9 +27,17 @@ public class HessianSerializationDecoder extends ByteToMessageDecoder {
 
     private ChannelInboundHandler handler;
 
+    /** 带头部的数据包的包体字节数达到该值时，IO线程上只解析头部，解压和反序列化交给业务线程，小于0表示不启用 */
+    private int lazyDecodeBytes;
+
     public HessianSerializationDecoder(int maxDataLength, ChannelInboundHandler handler) {
+        this(maxDataLength, handler, -1);
+    }
+
+    public HessianSerializationDecoder(int maxDataLength, ChannelInboundHandler handler, int lazyDecodeBytes) {
         this.maxDataLength = maxDataLength;
         this.handler = handler;
+        this.lazyDecodeBytes = lazyDecodeBytes;
     }
 
     @Override
@@ -49,20 +59,53 @@ public class HessianSerializationDecoder extends ByteToMessageDecoder {
                 in.resetReaderIndex();
                 return;
             }
-            byte[] dataZip = new byte[length];
-            in.readBytes(dataZip);
-            ByteArrayInputStream is = new ByteArrayInputStream(ZipTools.ungzip(dataZip));
-            HessianSerializerInput him = new HessianSerializerInput(is);
-            try {
-                Object o = him.readObject();
-                if (null != o) {
-                    out.add(o);
+            int end = in.readerIndex() + length;
+            boolean hasHeader = RpcFrame.hasHeader(in);
+            long sequence = 0;
+            byte type = 0;
+            String signature = null;
+            if (hasHeader) {
+                ByteBufInputStream header = new ByteBufInputStream(in);
+                RpcFrame.readVersion(header);
+                sequence = header.readLong();
+                type = header.readByte();
+                signature = header.readUTF();
+                if (!RpcFrame.isHeaderEnabled(ctx.channel())) { // 对方能识别头部，之后发给对方的数据包也带头部
+                    RpcFrame.enableHeader(ctx.channel());
                 }
-            } finally {
-                him.close();
+            }
+            byte[] dataZip = new byte[end - in.readerIndex()];
+            in.readBytes(dataZip);
+            if (hasHeader && lazyDecodeBytes >= 0 && dataZip.length >= lazyDecodeBytes) {
+                out.add(new RpcFrame(sequence, type, signature, dataZip, this));
+                return;
+            }
+            long begin = System.nanoTime();
+            Object o = decodePayload(dataZip);
+            if (hasHeader) {
+                RpcFrame.applyHeader(o, sequence, signature);
+            }
+            if (o instanceof RpcRequest) {
+                ((RpcRequest) o).decodeNanos = System.nanoTime() - begin;
+            } else if (o instanceof RpcResponse) {
+                ((RpcResponse) o).decodedBytes = length;
+            }
+            if (null != o) {
+                out.add(o);
             }
         } catch (Throwable cause) {
             handler.exceptionCaught(ctx, cause);
         }
     }
+
+    @Override
+    public Object decodePayload(byte[] dataZip) throws Exception {
+        ByteArrayInputStream is = new ByteArrayInputStream(ZipTools.ungzip(dataZip));
+        HessianSerializerInput him = new HessianSerializerInput(is);
+        try {
+            return him.readObject();
+        } finally {
+            him.close();
+        }
+    }
 }
@@ -4,7 +4,7 @@ import java.io.ByteArrayOutputStream;
 import java.util.List;
 import org.etnaframework.core.util.ZipTools;
 import com.caucho.hessian.io.HessianSerializerOutput;
-import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandler;
@@ -33,22 +33,42 @@ public class HessianSerializationEncoder extends MessageToMessageEncoder<Object>
     @Override
     protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
         try {
-            ByteArrayOutputStream bout = new ByteArrayOutputStream();
-            HessianSerializerOutput oout = new HessianSerializerOutput(bout);
-            try {
-                oout.writeObject(msg);
-                oout.flush();
-            } finally {
-                oout.close();
+            long begin = System.nanoTime();
+            boolean hasHeader = RpcFrame.isHeaderEnabled(ctx.channel());
+            // 旧格式没有头部，包体中的sequence必须是回包自己的，不能共用
+            RpcEncodedBody shared = hasHeader && msg instanceof RpcResponse ? ((RpcResponse) msg).sharedBody : null;
+            byte[] data = null == shared ? null : shared.get();
+            if (null == data) {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                HessianSerializerOutput oout = new HessianSerializerOutput(bout);
+                try {
+                    oout.writeObject(hasHeader ? RpcFrame.bodyOf(msg) : msg);
+                    oout.flush();
+                } finally {
+                    oout.close();
+                }
+                data = ZipTools.gzip(bout.toByteArray());
+                if (null != shared) {
+                    shared.set(data);
+                }
             }
-            byte[] data = ZipTools.gzip(bout.toByteArray());
-            if (data.length > maxDataLength) {
-                throw new TooLongFrameException("传入的包体长度" + data.length + "过大，上限是" + maxDataLength + "字节，请不要通过RPC传送过大的对象");
+            ByteBufOutputStream header = new ByteBufOutputStream(Unpooled.buffer());
+            header.write(LENGTH_PLACEHOLDER);
+            if (hasHeader) {
+                RpcFrame.writeHeader(header, msg);
+            }
+            int length = header.buffer().readableBytes() - LENGTH_PLACEHOLDER.length + data.length;
+            if (length > maxDataLength) {
+                throw new TooLongFrameException("传入的包体长度" + length + "过大，上限是" + maxDataLength + "字节，请不要通过RPC传送过大的对象");
             }
-            ByteBuf encoded = Unpooled.wrappedBuffer(LENGTH_PLACEHOLDER, data);
             // 写入包体长度信息
-            encoded.setInt(0, data.length);
-            out.add(encoded);
+            header.buffer().setInt(0, length);
+            out.add(Unpooled.wrappedBuffer(header.buffer(), Unpooled.wrappedBuffer(data)));
+            if (msg instanceof RpcResponse) {
+                ((RpcResponse) msg).encodeNanos = System.nanoTime() - begin;
+            } else if (msg instanceof RpcRequest) {
+                ((RpcRequest) msg).encodedBytes = length;
+            }
         } catch (Throwable cause) {
             handler.exceptionCaught(ctx, cause);
         }
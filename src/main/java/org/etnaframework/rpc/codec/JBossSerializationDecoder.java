@@ -1,5 +1,8 @@
 package org.etnaframework.rpc.codec;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import org.etnaframework.rpc.codec.RpcFrame.PayloadDecoder;
 import org.jboss.serial.io.JBossObjectInputStream;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
@@ -13,13 +16,21 @@ import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
  * @author BlackCat
  * @since 2015-04-18
  */
-public class JBossSerializationDecoder extends LengthFieldBasedFrameDecoder {
+public class JBossSerializationDecoder extends LengthFieldBasedFrameDecoder implements PayloadDecoder {
 
     private ChannelInboundHandler handler;
 
+    /** 带头部的数据包的包体字节数达到该值时，IO线程上只解析头部，反序列化交给业务线程，小于0表示不启用 */
+    private int lazyDecodeBytes;
+
     public JBossSerializationDecoder(int maxFrameLength, ChannelInboundHandler handler) {
+        this(maxFrameLength, handler, -1);
+    }
+
+    public JBossSerializationDecoder(int maxFrameLength, ChannelInboundHandler handler, int lazyDecodeBytes) {
         super(maxFrameLength, 0, 4, 0, 4);
         this.handler = handler;
+        this.lazyDecodeBytes = lazyDecodeBytes;
     }
 
     @Override
@@ -29,20 +40,57 @@ public class JBossSerializationDecoder extends LengthFieldBasedFrameDecoder {
             if (frame == null) {
                 return null;
             }
+            int length = frame.readableBytes();
             ByteBufInputStream is = new ByteBufInputStream(frame);
-            JBossObjectInputStream jim = new JBossObjectInputStream(is);
-            try {
-                Object o = jim.readObject();
-                return o;
-            } finally {
-                jim.close();
+            boolean header = RpcFrame.hasHeader(frame);
+            long sequence = 0;
+            String signature = null;
+            if (header) {
+                RpcFrame.readVersion(is);
+                sequence = is.readLong();
+                byte type = is.readByte();
+                signature = is.readUTF();
+                if (!RpcFrame.isHeaderEnabled(ctx.channel())) { // 对方能识别头部，之后发给对方的数据包也带头部
+                    RpcFrame.enableHeader(ctx.channel());
+                }
+                if (lazyDecodeBytes >= 0 && frame.readableBytes() >= lazyDecodeBytes) {
+                    byte[] body = new byte[frame.readableBytes()];
+                    frame.readBytes(body);
+                    return new RpcFrame(sequence, type, signature, body, this);
+                }
             }
+            long begin = System.nanoTime();
+            Object o = readObject(is);
+            if (header) {
+                RpcFrame.applyHeader(o, sequence, signature);
+            }
+            if (o instanceof RpcRequest) {
+                ((RpcRequest) o).decodeNanos = System.nanoTime() - begin;
+            } else if (o instanceof RpcResponse) {
+                ((RpcResponse) o).decodedBytes = length;
+            }
+            return o;
         } catch (Throwable cause) {
             handler.exceptionCaught(ctx, cause);
             return null;
         }
     }
 
+    @Override
+    public Object decodePayload(byte[] body) throws Exception {
+        return readObject(new ByteArrayInputStream(body));
+    }
+
+    private Object readObject(InputStream is) throws Exception {
+        JBossObjectInputStream jim = new JBossObjectInputStream(is);
+        try {
+            Object o = jim.readObject();
+            return o;
+        } finally {
+            jim.close();
+        }
+    }
+
     @Override
     protected ByteBuf extractFrame(ChannelHandlerContext ctx, ByteBuf buffer, int index, int length) {
         return buffer.slice(index, length);
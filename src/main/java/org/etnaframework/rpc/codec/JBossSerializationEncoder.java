@@ -4,7 +4,6 @@ import java.util.List;
 import org.jboss.serial.io.JBossObjectOutputStream;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufOutputStream;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandler;
 import io.netty.handler.codec.MessageToMessageEncoder;
@@ -18,6 +17,11 @@ import io.netty.handler.codec.MessageToMessageEncoder;
 public class JBossSerializationEncoder extends MessageToMessageEncoder<Object> {
 
     private static final byte[] LENGTH_PLACEHOLDER = new byte[Integer.SIZE / Byte.SIZE];
+    /** 输出缓冲区初始大小的上限，偶尔的大包不影响之后的小包 */
+    private static final int MAX_INITIAL_BYTES = 64 * 1024;
+
+    /** 输出缓冲区的初始大小，每个连接一个编码器，按上一次编码的大小分配，稳定后不需要扩容复制 */
+    private int lastEncodedBytes = 256;
 
     private ChannelInboundHandler handler;
 
@@ -27,21 +31,52 @@ public class JBossSerializationEncoder extends MessageToMessageEncoder<Object> {
 
     @Override
     protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+        ByteBuf buf = null;
         try {
-            ByteBufOutputStream bout = new ByteBufOutputStream(Unpooled.buffer(LENGTH_PLACEHOLDER.length));
+            long begin = System.nanoTime();
+            buf = ctx.alloc().buffer(lastEncodedBytes); // 从连接的分配器（默认是池化的）获取，写出后由netty释放
+            ByteBufOutputStream bout = new ByteBufOutputStream(buf);
             bout.write(LENGTH_PLACEHOLDER);
-            JBossObjectOutputStream oout = new JBossObjectOutputStream(bout);
-            try {
-                oout.writeObject(msg);
-                oout.flush();
-            } finally {
-                oout.close();
+            boolean header = RpcFrame.isHeaderEnabled(ctx.channel());
+            if (header) {
+                RpcFrame.writeHeader(bout, msg);
+            }
+            // 旧格式没有头部，包体中的sequence必须是回包自己的，不能共用
+            RpcEncodedBody shared = header && msg instanceof RpcResponse ? ((RpcResponse) msg).sharedBody : null;
+            byte[] body = null == shared ? null : shared.get();
+            if (null != body) {
+                bout.write(body);
+            } else {
+                int bodyStart = bout.buffer().writerIndex();
+                JBossObjectOutputStream oout = new JBossObjectOutputStream(bout);
+                try {
+                    oout.writeObject(header ? RpcFrame.bodyOf(msg) : msg);
+                    oout.flush();
+                } finally {
+                    oout.close();
+                }
+                if (null != shared) {
+                    body = new byte[bout.buffer().writerIndex() - bodyStart];
+                    bout.buffer().getBytes(bodyStart, body);
+                    shared.set(body);
+                }
             }
             ByteBuf encoded = bout.buffer();
             encoded.setInt(0, encoded.writerIndex() - LENGTH_PLACEHOLDER.length);
+            lastEncodedBytes = Math.min(encoded.writerIndex(), MAX_INITIAL_BYTES);
             out.add(encoded);
+            buf = null;
+            if (msg instanceof RpcResponse) {
+                ((RpcResponse) msg).encodeNanos = System.nanoTime() - begin;
+            } else if (msg instanceof RpcRequest) {
+                ((RpcRequest) msg).encodedBytes = encoded.readableBytes() - LENGTH_PLACEHOLDER.length;
+            }
         } catch (Throwable cause) {
             handler.exceptionCaught(ctx, cause);
+        } finally {
+            if (null != buf) { // 编码失败，缓冲区没有交给netty
+                buf.release();
+            }
         }
     }
 }
@@ -25,4 +25,11 @@ public final class RpcCodecFactory {
     public static ChannelHandler createDecoder(ChannelInboundHandler handler) {
         return new JBossSerializationDecoder(maxObjectBytes, handler);
     }
+
+    /**
+     * 创建解码器，带头部的数据包的包体字节数达到lazyDecodeBytes时IO线程上只解析头部，输出{@link RpcFrame}，小于0表示不启用
+     */
+    public static ChannelHandler createDecoder(ChannelInboundHandler handler, int lazyDecodeBytes) {
+        return new JBossSerializationDecoder(maxObjectBytes, handler, lazyDecodeBytes);
+    }
 }
@@ -0,0 +1,28 @@
+package org.etnaframework.rpc.codec;
+
+/**
+ * <pre>
+ * 多个回包共用的序列化后的包体，内容相同、只有sequence不同的回包只需序列化一次
+ *
+ * 包体里面的sequence是第一个编码的回包的，接收方需要以数据包头部的sequence为准，
+ * 因此编码器只在带头部的连接上使用共用的包体，旧格式的连接上仍逐个序列化，见{@link RpcFrame}
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcEncodedBody {
+
+    private volatile byte[] body;
+
+    /**
+     * 已经编码好的包体，还没有回包编码过时返回null
+     */
+    public byte[] get() {
+        return body;
+    }
+
+    void set(byte[] body) {
+        this.body = body;
+    }
+}
@@ -0,0 +1,176 @@
+package org.etnaframework.rpc.codec;
+
+import java.io.DataInput;
+import java.io.IOException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.AttributeKey;
+
+/**
+ * <pre>
+ * 只解析了头部、包体尚未反序列化的RPC数据包
+ *
+ * 旧格式的数据包只有长度和序列化的包体，带头部的数据包在包体之前多一个很小的头部：
+ * MAGIC(byte) + VERSION(byte) + sequence(long) + type(byte) + signature(UTF，回包时为空串)，请求的方法签名只在头部传输，包体中为null
+ * 旧格式的包体是jboss-serialization（以"jbs1"开头）或gzip（以0x1f 0x8b开头）的，解码器根据第一个字节区分两种格式，都能接收
+ *
+ * 只有连接被标记为带头部（见{@link #enableHeader(Channel)}）时编码器才写头部：
+ * 客户端按配置决定是否标记，服务器端收到带头部的数据包后标记该连接，之后的回包也带头部，旧版本客户端的连接一直使用旧格式
+ *
+ * 请求的type字节高4位是{@link RpcRequest#priority}，这样只解析头部时也能知道优先级
+ * 旧版本没有头部，不会读到这个字节，与旧版本之间使用旧格式时优先级只通过包体中的{@link RpcRequest#priority}传递
+ *
+ * 当包体超过解码器设置的阈值时，IO线程只读取头部并把包体原样拷贝出来，交给业务线程/调用方线程调用{@link #decode()}反序列化
+ * 这样大对象的反序列化不会卡住同一个IO线程上的其他连接，旧格式的数据包没有头部，总是在IO线程上反序列化
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcFrame {
+
+    /** 带头部的数据包的第一个字节，与旧格式包体的第一个字节都不相同 */
+    private static final int MAGIC = 0xEF;
+
+    /** 头部格式的版本 */
+    private static final int VERSION = 1;
+
+    /** 连接上发送的数据包是否带头部 */
+    private static final AttributeKey<Boolean> HEADER = AttributeKey.valueOf("etna.rpc.frameHeader");
+
+    /** 头部type字节中优先级所在的位置，头部是第一个版本就有的，低4位之外的位不会被其他版本当作类型 */
+    private static final int PRIORITY_SHIFT = 4;
+
+    private static final int TYPE_MASK = (1 << PRIORITY_SHIFT) - 1;
+
+    /** 对应{@link RpcRequest#sequence}或{@link RpcResponse#sequence} */
+    public long sequence;
+
+    /** 对应{@link RpcRequest#type}或{@link RpcResponse#type} */
+    public byte type;
+
+    /** 对应{@link RpcRequest#priority}，回包时为0 */
+    public byte priority;
+
+    /** 对应{@link RpcRequest#signature}，回包时为空串 */
+    public String signature;
+
+    /** 尚未反序列化的包体 */
+    private byte[] body;
+
+    private PayloadDecoder decoder;
+
+    public RpcFrame(long sequence, byte type, String signature, byte[] body, PayloadDecoder decoder) {
+        this.sequence = sequence;
+        this.type = (byte) (type & TYPE_MASK);
+        this.priority = (byte) ((type & 0xFF) >>> PRIORITY_SHIFT);
+        this.signature = signature;
+        this.body = body;
+        this.decoder = decoder;
+    }
+
+    /**
+     * 反序列化包体，请不要在IO线程上调用
+     */
+    public Object decode() throws Exception {
+        return applyHeader(decoder.decodePayload(body), sequence, signature);
+    }
+
+    /**
+     * 包体的字节数
+     */
+    public int getLength() {
+        return body.length;
+    }
+
+    /**
+     * 标记连接上发送的数据包带头部，对方必须是能识别头部的版本
+     */
+    public static void enableHeader(Channel ch) {
+        ch.attr(HEADER).set(Boolean.TRUE);
+    }
+
+    /**
+     * 连接上发送的数据包是否带头部
+     */
+    public static boolean isHeaderEnabled(Channel ch) {
+        return Boolean.TRUE.equals(ch.attr(HEADER).get());
+    }
+
+    /**
+     * 数据包是否带头部，不移动读取位置
+     */
+    static boolean hasHeader(ByteBuf frame) {
+        return frame.isReadable() && frame.getUnsignedByte(frame.readerIndex()) == MAGIC;
+    }
+
+    /**
+     * 读取并校验头部开始的MAGIC和VERSION
+     */
+    static void readVersion(DataInput in) throws IOException {
+        in.readByte();
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new CorruptedFrameException("不支持的RPC数据包头部版本" + version);
+        }
+    }
+
+    /**
+     * 写入数据包头部
+     */
+    static void writeHeader(ByteBufOutputStream out, Object msg) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        if (msg instanceof RpcRequest) {
+            RpcRequest req = (RpcRequest) msg;
+            out.writeLong(req.sequence);
+            out.writeByte(req.type | req.priority << PRIORITY_SHIFT);
+            out.writeUTF(null == req.signature ? "" : req.signature);
+        } else {
+            RpcResponse resp = (RpcResponse) msg;
+            out.writeLong(resp.sequence);
+            out.writeByte(resp.type);
+            out.writeUTF("");
+        }
+    }
+
+    /**
+     * 带头部时实际序列化的包体，请求的方法签名已经在头部中，包体中不再重复
+     */
+    static Object bodyOf(Object msg) {
+        if (msg instanceof RpcRequest && null != ((RpcRequest) msg).signature) {
+            return ((RpcRequest) msg).copyWithoutSignature(); // 不能直接修改原请求，客户端查看进行中的请求时会读取
+        }
+        return msg;
+    }
+
+    /**
+     * 用头部中的内容补全反序列化出来的包体
+     */
+    static Object applyHeader(Object o, long sequence, String signature) {
+        if (o instanceof RpcRequest) {
+            RpcRequest req = (RpcRequest) o;
+            if (null == req.signature && !signature.isEmpty()) {
+                req.signature = signature;
+            }
+        } else if (o instanceof RpcResponse) {
+            ((RpcResponse) o).sequence = sequence; // 共用包体的回包中的sequence不一定是自己的，以头部为准
+        }
+        return o;
+    }
+
+    @Override
+    public String toString() {
+        return "RpcFrame [sequence=" + sequence + ", type=" + type + ", signature=" + signature + ", length=" + (null == body ? 0 : body.length) + "]";
+    }
+
+    /**
+     * 包体的反序列化实现，由各个解码器提供
+     */
+    public interface PayloadDecoder {
+
+        public Object decodePayload(byte[] body) throws Exception;
+    }
+}
@@ -15,6 +15,27 @@ public class RpcRequest implements Serializable {
 
     private static final long serialVersionUID = -1995620584672619944L;
 
+    /** 普通的方法调用请求 */
+    public static final byte TYPE_CALL = 0;
+
+    /** 流式调用时，客户端给服务器端追加发送额度，{@link #sequence}为流式调用请求的ID */
+    public static final byte TYPE_STREAM_CREDIT = 1;
+
+    /** 客户端不再等待结果（等待超时或被中断），服务器端可以不执行或中止执行，不再回包，{@link #sequence}为被取消的请求的ID */
+    public static final byte TYPE_CANCEL = 2;
+
+    /** 探测连接，服务器端不执行任何方法，直接在IO线程上回一个空的回包，客户端预热时用来提前走一遍编解码 */
+    public static final byte TYPE_PING = 3;
+
+    /** 交互式请求，默认的优先级，旧版本客户端的请求反序列化后也是该值 */
+    public static final byte PRIORITY_NORMAL = 0;
+
+    /** 批处理、数据回填等后台请求，服务器端使用独立的线程池（如果配置了），过载时最先被拒绝 */
+    public static final byte PRIORITY_LOW = 1;
+
+    /** 请求类型，见TYPE_开头的常量 */
+    public byte type = TYPE_CALL;
+
     /** 客户端的消息ID，服务器回包时将会返回相同的ID，以便客户端知道是对应的哪个请求，并执行后续的操作 */
     public long sequence;
 
@@ -27,6 +48,18 @@ public class RpcRequest implements Serializable {
     /** 日志线程信息，用于在服务端打日志也能追溯到来源 */
     public Map<String, String> mdc;
 
+    /** 请求的优先级，见PRIORITY_开头的常量 */
+    public byte priority = PRIORITY_NORMAL;
+
+    /** 流式调用时，服务器端可以发送的元素个数（发送额度），服务器端用完之后需要等客户端追加才能继续发送 */
+    public int credit;
+
+    /** 在IO线程上反序列化本请求花费的时间，只在接收方使用，不参与传输，单位纳秒 */
+    public transient long decodeNanos;
+
+    /** 本请求序列化后的字节数（不含长度头），只在发送方使用，不参与传输 */
+    public transient int encodedBytes;
+
     public RpcRequest() {
     }
 
@@ -36,8 +69,61 @@ public class RpcRequest implements Serializable {
         this.mdc = MDC.getCopyOfContextMap();
     }
 
+    /**
+     * 创建流式调用追加发送额度的请求
+     */
+    public static RpcRequest createCredit(long sequence, int credit) {
+        RpcRequest req = new RpcRequest();
+        req.type = TYPE_STREAM_CREDIT;
+        req.sequence = sequence;
+        req.credit = credit;
+        return req;
+    }
+
+    /**
+     * 创建取消请求的请求
+     */
+    public static RpcRequest createCancel(long sequence) {
+        RpcRequest req = new RpcRequest();
+        req.type = TYPE_CANCEL;
+        req.sequence = sequence;
+        return req;
+    }
+
+    /**
+     * 创建探测连接的请求
+     */
+    public static RpcRequest createPing() {
+        RpcRequest req = new RpcRequest();
+        req.type = TYPE_PING;
+        return req;
+    }
+
+    /**
+     * 复制除方法签名外的内容，用于方法签名已在数据包头部中传输时序列化
+     */
+    RpcRequest copyWithoutSignature() {
+        RpcRequest req = new RpcRequest();
+        req.type = type;
+        req.sequence = sequence;
+        req.args = args;
+        req.mdc = mdc;
+        req.priority = priority;
+        req.credit = credit;
+        return req;
+    }
+
     @Override
     public String toString() {
+        if (type == TYPE_STREAM_CREDIT) {
+            return "RpcRequest [sequence=" + sequence + ", credit=" + credit + "]";
+        }
+        if (type == TYPE_CANCEL) {
+            return "RpcRequest [sequence=" + sequence + ", cancel]";
+        }
+        if (type == TYPE_PING) {
+            return "RpcRequest [sequence=" + sequence + ", ping]";
+        }
         return "RpcRequest [sequence=" + sequence + ", signature=" + signature + ", args=" + JsonObjectUtils.createJson(args) + "]";
     }
 }
@@ -1,6 +1,7 @@
 package org.etnaframework.rpc.codec;
 
 import java.io.Serializable;
+import java.util.List;
 import org.etnaframework.core.util.JsonObjectUtils;
 import org.etnaframework.core.util.StringTools;
 
@@ -14,17 +15,82 @@ public class RpcResponse implements Serializable {
 
     private static final long serialVersionUID = -6297461401549820153L;
 
+    /** 普通调用的结果 */
+    public static final byte TYPE_RESULT = 0;
+
+    /** 流式调用的一批元素，{@link #result}是一个{@link List} */
+    public static final byte TYPE_STREAM_DATA = 1;
+
+    /** 流式调用结束，如果{@link #error}不为null表示中途出错 */
+    public static final byte TYPE_STREAM_END = 2;
+
+    /**
+     * <pre>
+     * 服务器即将关闭，客户端不要再在该连接上发送新请求，已发出的请求仍会正常回包，不对应任何请求，{@link #sequence}为0
+     * 服务器处理完连接上的请求后会再发一次，之后关闭连接
+     * </pre>
+     */
+    public static final byte TYPE_GOAWAY = 3;
+
+    /** 回包类型，见TYPE_开头的常量 */
+    public byte type = TYPE_RESULT;
+
+    /** 执行正常；旧版本的服务器在业务代码出错时也返回该值，需再判断{@link #error} */
+    public static final int CODE_OK = 0;
+
+    /** 服务器过载，请求没有被执行就直接拒绝了 */
+    public static final int CODE_OVERLOADED = 1;
+
+    /** 服务器端没有对应方法签名的实现 */
+    public static final int CODE_NO_SUCH_METHOD = 2;
+
+    /** 服务器端无法反序列化请求 */
+    public static final int CODE_BAD_REQUEST = 3;
+
+    /** 业务代码抛出了异常，异常类名见{@link #errorClass} */
+    public static final int CODE_SERVICE_EXCEPTION = 4;
+
+    /** 错误码，见CODE_开头的常量 */
+    public int code = CODE_OK;
+
     /** 客户端的消息ID，服务器回包时将会返回相同的ID，以便客户端知道是对应的哪个请求，并执行后续的操作 */
     public long sequence;
 
     /** 如果在远程服务器执行时出现异常，这里将返回堆栈的文本信息，如果为null表示执行正常 */
     public String error;
 
+    /** 出错时的异常类名，用于调用方按类型处理，不必解析{@link #error} */
+    public String errorClass;
+
     /** 远程执行的结果 */
     public Object result;
 
+    /** 不为null时与其他内容相同的回包共用序列化后的包体，只在发送方使用，不参与传输 */
+    public transient RpcEncodedBody sharedBody;
+
+    /** 序列化本回包花费的时间，只在发送方使用，不参与传输，单位纳秒 */
+    public transient long encodeNanos;
+
+    /** 接收到的本回包的字节数（不含长度头），只在接收方使用，不参与传输 */
+    public transient int decodedBytes;
+
+    /**
+     * 创建通知客户端不要再发送新请求的回包
+     */
+    public static RpcResponse createGoAway() {
+        RpcResponse resp = new RpcResponse();
+        resp.type = TYPE_GOAWAY;
+        return resp;
+    }
+
     @Override
     public String toString() {
+        if (type == TYPE_GOAWAY) {
+            return "RpcResponse [goaway]";
+        }
+        if (type == TYPE_STREAM_DATA) {
+            return "RpcResponse [sequence=" + sequence + ", stream=" + ((List<?>) result).size() + "]";
+        }
         return "RpcResponse [sequence=" + sequence + ", error=" + StringTools.escapeWhitespace(error) + ", result=" + JsonObjectUtils.createJson(result) + "]";
     }
 }
@@ -0,0 +1,23 @@
+package org.etnaframework.rpc.exception;
+
+/**
+ * 服务器端执行的RPC调用已被客户端取消，由{@link org.etnaframework.rpc.server.RpcCancellation#checkCancelled()}抛出，用于提前结束业务代码
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcCallCancelledException extends RpcException {
+
+    private static final long serialVersionUID = 5230861937401561824L;
+
+    public RpcCallCancelledException() {
+    }
+
+    public RpcCallCancelledException(String msg) {
+        super(msg);
+    }
+
+    public RpcCallCancelledException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
@@ -10,9 +10,21 @@ public class RpcServerInvocationException extends RpcException {
 
     private static final long serialVersionUID = -6291580032892838585L;
 
+    /** 服务器端返回的错误码，见RpcResponse中CODE_开头的常量 */
+    private int code;
+
+    /** 服务器端抛出的异常类名 */
+    private String errorClass;
+
     public RpcServerInvocationException() {
     }
 
+    public RpcServerInvocationException(String msg, int code, String errorClass) {
+        super(msg);
+        this.code = code;
+        this.errorClass = errorClass;
+    }
+
     public RpcServerInvocationException(String msg) {
         super(msg);
     }
@@ -20,4 +32,12 @@ public class RpcServerInvocationException extends RpcException {
     public RpcServerInvocationException(String msg, Throwable cause) {
         super(msg, cause);
     }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getErrorClass() {
+        return errorClass;
+    }
 }
@@ -0,0 +1,23 @@
+package org.etnaframework.rpc.exception;
+
+/**
+ * 进行RPC调用时远程服务器过载，请求没有被执行就被拒绝了，可以稍后重试或改为调用其他服务器
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcServerOverloadedException extends RpcException {
+
+    private static final long serialVersionUID = 3850167412968712345L;
+
+    public RpcServerOverloadedException() {
+    }
+
+    public RpcServerOverloadedException(String msg) {
+        super(msg);
+    }
+
+    public RpcServerOverloadedException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
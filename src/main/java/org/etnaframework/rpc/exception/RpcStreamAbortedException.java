@@ -0,0 +1,23 @@
+package org.etnaframework.rpc.exception;
+
+/**
+ * 流式RPC调用在传输过程中被中止，例如客户端长时间不给发送额度、连接断开等
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcStreamAbortedException extends RpcException {
+
+    private static final long serialVersionUID = -2207150394671638427L;
+
+    public RpcStreamAbortedException() {
+    }
+
+    public RpcStreamAbortedException(String msg) {
+        super(msg);
+    }
+
+    public RpcStreamAbortedException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
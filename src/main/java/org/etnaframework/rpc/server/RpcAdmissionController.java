@@ -0,0 +1,146 @@
+package org.etnaframework.rpc.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <pre>
+ * RPC服务器的准入控制，过载时尽早拒绝请求，保证已接收的请求仍能在客户端超时之前完成
+ *
+ * 1、同时在处理中（已接收未回包）的请求数超过maxInFlight时，新请求在IO线程上直接拒绝
+ * 2、参考CoDel算法按排队时间丢弃：如果在一个interval内所有请求的排队时间都超过了target，认为队列已经持续积压，
+ * 此时排队超过target的请求不再执行直接拒绝；否则只拒绝排队超过interval的请求，以容忍短暂的突发流量
+ * 3、低优先级的请求最先被拒绝：处理中的请求数超过maxInFlight的一定比例时就拒绝，持续积压时全部丢弃，未积压时排队超过target也丢弃
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcAdmissionController {
+
+    /** 同时处理中的请求数上限，小于等于0表示不限制 */
+    private int maxInFlight;
+
+    /** 低优先级请求的同时处理数上限，maxInFlight小于等于0时不限制 */
+    private int lowPriorityMaxInFlight;
+
+    /** 持续积压时允许的排队时间，小于等于0表示不按排队时间丢弃 */
+    private long targetNanos;
+
+    /** 观察周期，同时也是未积压时允许的最长排队时间 */
+    private long intervalNanos;
+
+    private AtomicInteger inFlight = new AtomicInteger();
+
+    /** 当前观察周期内的最短排队时间 */
+    private AtomicLong minSojournNanos = new AtomicLong(Long.MAX_VALUE);
+
+    /** 当前观察周期的结束时间 */
+    private volatile long intervalEndNanos = System.nanoTime();
+
+    /** 上一个观察周期是否持续积压 */
+    private volatile boolean overloaded;
+
+    /** 因超过同时处理数上限被拒绝的次数 */
+    private LongAdder rejected = new LongAdder();
+
+    /** 因排队超时被丢弃的次数 */
+    private LongAdder dropped = new LongAdder();
+
+    /** 被拒绝和丢弃的请求中低优先级的个数 */
+    private LongAdder lowPriorityShed = new LongAdder();
+
+    RpcAdmissionController(int maxInFlight, long targetMs, long intervalMs) {
+        this(maxInFlight, 100, targetMs, intervalMs);
+    }
+
+    /**
+     * @param lowPriorityPercent 低优先级请求最多占用maxInFlight的百分比
+     */
+    RpcAdmissionController(int maxInFlight, int lowPriorityPercent, long targetMs, long intervalMs) {
+        this.maxInFlight = maxInFlight;
+        this.lowPriorityMaxInFlight = (int) ((long) maxInFlight * lowPriorityPercent / 100);
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMs);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(targetMs, intervalMs));
+    }
+
+    /**
+     * 请求到达时调用，返回false表示超过同时处理数上限应当拒绝；返回true时处理完毕后必须调用{@link #exit()}
+     */
+    boolean tryEnter(boolean lowPriority) {
+        int n = inFlight.incrementAndGet();
+        if (maxInFlight > 0 && (n > maxInFlight || lowPriority && n > lowPriorityMaxInFlight)) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            if (lowPriority) {
+                lowPriorityShed.increment();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 请求处理完毕（包括被丢弃）时调用
+     */
+    void exit() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * 请求开始执行时调用，根据排队时间判断是否应当丢弃
+     */
+    boolean shouldDrop(long sojournNanos, long nowNanos, boolean lowPriority) {
+        if (targetNanos <= 0) {
+            return false;
+        }
+        if (nowNanos - intervalEndNanos >= 0) { // 进入新的观察周期，多个线程同时进入时只会有细微的统计误差，不影响判断
+            long lastMin = minSojournNanos.getAndSet(Long.MAX_VALUE);
+            overloaded = lastMin != Long.MAX_VALUE && lastMin > targetNanos; // 上个周期没有请求时不算积压
+            intervalEndNanos = nowNanos + intervalNanos;
+        }
+        if (lowPriority) { // 低优先级请求可能在独立的线程池中排队，不参与积压判断
+            if (overloaded || sojournNanos > targetNanos) {
+                dropped.increment();
+                lowPriorityShed.increment();
+                return true;
+            }
+            return false;
+        }
+        long min = minSojournNanos.get();
+        while (sojournNanos < min && !minSojournNanos.compareAndSet(min, sojournNanos)) {
+            min = minSojournNanos.get();
+        }
+        if (sojournNanos > (overloaded ? targetNanos : intervalNanos)) {
+            dropped.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getLowPriorityShed() {
+        return lowPriorityShed.sum();
+    }
+}
@@ -16,4 +16,18 @@ public interface RpcAuthHandler {
      * 鉴别是否有权限使用本机的服务，如果允许使用返回true否则返回false（RPC框架将断开连接）
      */
     public boolean auth(ChannelHandlerContext ctx) throws Exception;
+
+    /**
+     * 连接对应的调用方身份，开启公平调度时同一身份的多个连接共用一个队列，返回null表示按连接区分
+     */
+    public default String identity(ChannelHandlerContext ctx) {
+        return null;
+    }
+
+    /**
+     * 开启公平调度时调用方的权重，轮到它时最多连续执行这么多个请求
+     */
+    public default int weight(ChannelHandlerContext ctx) {
+        return 1;
+    }
 }
@@ -0,0 +1,106 @@
+package org.etnaframework.rpc.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.etnaframework.core.util.ThreadUtils.NamedThreadFactory;
+import org.etnaframework.rpc.annotation.RpcBulkhead;
+import org.etnaframework.rpc.annotation.RpcBulkhead.RejectPolicy;
+
+/**
+ * 由{@link RpcBulkhead}声明的独立业务线程池，有界队列，记录拒绝次数以便在统计页面上找出拥堵的方法
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcBulkheadExecutor {
+
+    private String name;
+
+    private int threads;
+
+    private int queueSize;
+
+    private RejectPolicy rejectPolicy;
+
+    private ThreadPoolExecutor pool;
+
+    /** 线程池满被拒绝的次数（包括转到公共线程池执行的） */
+    private LongAdder rejected = new LongAdder();
+
+    RpcBulkheadExecutor(RpcBulkhead conf) {
+        this.name = conf.value();
+        this.threads = conf.threads();
+        this.queueSize = conf.queueSize();
+        this.rejectPolicy = conf.rejectPolicy();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new NamedThreadFactory("RpcBulkhead-" + name + "-", Thread.NORM_PRIORITY));
+    }
+
+    /**
+     * 判断另一个注解声明的线程池配置是否与本线程池一致
+     */
+    boolean sameAs(RpcBulkhead conf) {
+        return threads == conf.threads() && queueSize == conf.queueSize() && rejectPolicy == conf.rejectPolicy();
+    }
+
+    /**
+     * 提交任务，线程池满时返回false
+     */
+    boolean execute(Runnable task) {
+        try {
+            pool.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    /**
+     * 不再接受新任务，已提交的任务会继续执行完
+     */
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public RejectPolicy getRejectPolicy() {
+        return rejectPolicy;
+    }
+
+    /** 正在执行任务的线程数 */
+    public int getActive() {
+        return pool.getActiveCount();
+    }
+
+    /** 在队列中等待执行的任务数 */
+    public int getQueued() {
+        return pool.getQueue().size();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getCompleted() {
+        return pool.getCompletedTaskCount();
+    }
+
+    @Override
+    public String toString() {
+        return "RpcBulkheadExecutor [name=" + name + ", threads=" + threads + ", queueSize=" + queueSize + ", rejectPolicy=" + rejectPolicy + "]";
+    }
+}
@@ -0,0 +1,33 @@
+package org.etnaframework.rpc.server;
+
+import java.util.Arrays;
+
+/**
+ * 按参数内容比较的调用key，用于合并相同的并发调用和缓存调用结果，参数类型需要正确实现equals/hashCode
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+class RpcCallKey {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private Object[] args;
+
+    private int hash;
+
+    RpcCallKey(Object[] args) {
+        this.args = null == args ? NO_ARGS : args;
+        this.hash = Arrays.deepHashCode(this.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof RpcCallKey && hash == ((RpcCallKey) obj).hash && Arrays.deepEquals(args, ((RpcCallKey) obj).args);
+    }
+}
@@ -0,0 +1,50 @@
+package org.etnaframework.rpc.server;
+
+import org.etnaframework.rpc.exception.RpcCallCancelledException;
+
+/**
+ * <pre>
+ * 查询当前线程正在执行的RPC调用是否已被客户端取消
+ *
+ * 客户端等待超时或被中断后会发来取消请求，还在排队的请求将不再执行，执行完的也不再回包
+ * 正在执行的耗时较长的业务代码可以在循环中调用{@link #isCancelled()}或{@link #checkCancelled()}提前结束
+ * 开启etna.rpc.server.interruptOnCancel时还会中断执行线程，只适合能正确处理中断的业务代码
+ * 声明了{@link org.etnaframework.rpc.annotation.RpcIdempotent}的方法结果可能还有其他调用方在等，不会被标记为取消
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public final class RpcCancellation {
+
+    /** 当前线程正在执行的调用，不在RPC调用中时为null */
+    static final ThreadLocal<Token> CURRENT = new ThreadLocal<Token>();
+
+    /**
+     * 一次RPC调用的取消状态
+     */
+    interface Token {
+
+        boolean isCancelled();
+    }
+
+    private RpcCancellation() {
+    }
+
+    /**
+     * 当前线程正在执行的RPC调用是否已被客户端取消，不在RPC调用中时始终返回false
+     */
+    public static boolean isCancelled() {
+        Token token = CURRENT.get();
+        return null != token && token.isCancelled();
+    }
+
+    /**
+     * 当前线程正在执行的RPC调用已被客户端取消时抛出{@link RpcCallCancelledException}
+     */
+    public static void checkCancelled() {
+        if (isCancelled()) {
+            throw new RpcCallCancelledException("RPC call is CANCELLED by client");
+        }
+    }
+}
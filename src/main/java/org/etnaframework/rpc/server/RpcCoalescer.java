@@ -0,0 +1,121 @@
+package org.etnaframework.rpc.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.etnaframework.rpc.annotation.RpcIdempotent;
+
+/**
+ * <pre>
+ * 合并{@link RpcIdempotent}方法相同参数的并发调用
+ *
+ * 第一个到达的请求负责执行，执行期间到达的相同请求挂在它上面，执行完毕后由执行方把同一个结果回复给所有挂上来的请求
+ * 执行完毕后再到达的请求会重新执行，因此不会读到过期的结果
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcCoalescer<T> {
+
+    /** 正在执行中的调用，按参数区分 */
+    private Map<RpcCallKey, Call<T>> calls = new ConcurrentHashMap<RpcCallKey, Call<T>>();
+
+    /** 实际执行的次数 */
+    private LongAdder executed = new LongAdder();
+
+    /** 被合并没有执行的次数 */
+    private LongAdder coalesced = new LongAdder();
+
+    /**
+     * 尝试挂到执行中的相同调用上，成功时返回null，之后由执行方负责回复；否则当前请求成为执行方，执行完后必须调用{@link #finish(Call)}
+     */
+    Call<T> join(RpcCallKey key, T task) {
+        while (true) {
+            Call<T> call = calls.get(key);
+            if (null == call) {
+                Call<T> created = new Call<T>(key);
+                call = calls.putIfAbsent(key, created);
+                if (null == call) {
+                    executed.increment();
+                    return created;
+                }
+            }
+            if (call.attach(task)) {
+                coalesced.increment();
+                return null;
+            }
+            // 刚好执行完毕，重新查找
+        }
+    }
+
+    /**
+     * 执行完毕，返回执行期间挂上来的请求
+     */
+    List<T> finish(Call<T> call) {
+        calls.remove(call.key, call);
+        return call.close();
+    }
+
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * 被合并的请求占全部请求的比例
+     */
+    public double getRatio() {
+        long c = coalesced.sum();
+        long total = executed.sum() + c;
+        return total == 0 ? 0 : (double) c / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d (%.1f%%)", getCoalesced(), getExecuted() + getCoalesced(), getRatio() * 100);
+    }
+
+    void resetCounter() {
+        executed.reset();
+        coalesced.reset();
+    }
+
+    /**
+     * 一次正在执行的调用
+     */
+    static class Call<T> {
+
+        private RpcCallKey key;
+
+        private List<T> followers = Collections.emptyList();
+
+        private boolean closed;
+
+        Call(RpcCallKey key) {
+            this.key = key;
+        }
+
+        synchronized boolean attach(T task) {
+            if (closed) {
+                return false;
+            }
+            if (followers.isEmpty()) {
+                followers = new ArrayList<T>(4);
+            }
+            followers.add(task);
+            return true;
+        }
+
+        synchronized List<T> close() {
+            closed = true;
+            return followers;
+        }
+    }
+}
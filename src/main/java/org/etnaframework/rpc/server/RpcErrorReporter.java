@@ -0,0 +1,148 @@
+package org.etnaframework.rpc.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.etnaframework.core.logging.Log;
+import org.etnaframework.core.spring.annotation.Config;
+import org.etnaframework.core.util.ThreadUtils.NamedThreadFactory;
+import org.etnaframework.core.web.DispatchFilter;
+import org.slf4j.Logger;
+import org.springframework.stereotype.Service;
+
+/**
+ * <pre>
+ * RPC服务器端的出错报告（邮件/告警），异步、去重、限频
+ *
+ * 1、按 异常类型@方法签名 去重，同一个key在errorReportIntervalMs内只报告一次，期间被压下的次数会在下一次报告的标题中说明
+ * 2、报告由单独的低优先级线程发送，不占用业务线程；待发送的报告超过上限时直接丢弃
+ * 3、报告内容（请求参数等）在发送线程上才转成字符串，被压下的报告没有任何序列化开销
+ *
+ * 这样在出错风暴时，报告的开销与出错次数无关，只与出错的种类有关
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@Service
+public class RpcErrorReporter {
+
+    protected final Logger log = Log.getLogger();
+
+    /** 待发送报告的上限 */
+    private static final int QUEUE_SIZE = 256;
+
+    /** 同一方法同一种异常的最短报告间隔，单位毫秒 */
+    @Config("etna.rpc.server.errorReportIntervalMs")
+    private long errorReportIntervalMs = 60000;
+
+    private ThreadPoolExecutor sender;
+
+    private ConcurrentHashMap<String, Occurrence> occurrences = new ConcurrentHashMap<String, Occurrence>();
+
+    /** 被压下未报告的次数 */
+    private LongAdder suppressed = new LongAdder();
+
+    /** 因待发送报告过多被丢弃的次数 */
+    private LongAdder dropped = new LongAdder();
+
+    public RpcErrorReporter() {
+        sender = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new NamedThreadFactory("RpcErrorReporter-", Thread.MIN_PRIORITY), new ThreadPoolExecutor.AbortPolicy() {
+
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                dropped.increment();
+            }
+        });
+        sender.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 报告一次出错，context为出错时的请求等现场信息，只在真正发送时才调用toString
+     */
+    public void report(String type, String signature, final String title, final Object context, final Throwable cause) {
+        String key = type + "@" + signature;
+        Occurrence o = occurrences.get(key);
+        if (null == o) {
+            Occurrence created = new Occurrence();
+            o = occurrences.putIfAbsent(key, created);
+            if (null == o) {
+                o = created;
+            }
+        }
+        long count = o.count.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long last = o.lastReportTime.get();
+        if ((last != 0 && now - last < errorReportIntervalMs) || !o.lastReportTime.compareAndSet(last, now)) {
+            suppressed.increment();
+            return;
+        }
+        long skipped = count - o.reportedCount.getAndSet(count) - 1;
+        final String fullTitle = skipped > 0 ? title + " (+" + skipped + " suppressed)" : title;
+        sender.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    if (null == context) {
+                        DispatchFilter.sendMail(fullTitle, cause);
+                    } else {
+                        DispatchFilter.sendMail(fullTitle, String.valueOf(context), cause);
+                    }
+                } catch (Throwable e) {
+                    log.error("send RPC error report FAILED: {}", fullTitle, e);
+                }
+            }
+        });
+    }
+
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * <pre>
+     * 生成异常的描述：异常类名和消息，加上不超过maxStackChars个字符的堆栈（包括Caused by）
+     * maxStackChars小于等于0时不带堆栈，逐行拼接到上限为止，不会先打印完整堆栈再截断
+     * </pre>
+     */
+    public static String describe(Throwable t, int maxStackChars) {
+        StringBuilder sb = new StringBuilder(t.toString());
+        if (maxStackChars <= 0) {
+            return sb.toString();
+        }
+        int limit = sb.length() + maxStackChars;
+        for (Throwable c = t; null != c; c = c.getCause()) {
+            if (c != t) {
+                sb.append("\nCaused by: ").append(c);
+            }
+            for (StackTraceElement e : c.getStackTrace()) {
+                if (sb.length() >= limit) {
+                    return sb.append("\n\t...").toString();
+                }
+                sb.append("\n\tat ").append(e);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 某个key的出错次数和上次报告的情况
+     */
+    private static class Occurrence {
+
+        private AtomicLong count = new AtomicLong();
+
+        /** 上次报告时的出错次数，用于计算期间被压下的次数 */
+        private AtomicLong reportedCount = new AtomicLong();
+
+        private AtomicLong lastReportTime = new AtomicLong();
+    }
+}
@@ -0,0 +1,123 @@
+package org.etnaframework.rpc.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * <pre>
+ * 按连接（或{@link RpcAuthHandler#identity}给出的调用方身份）公平调度的执行器
+ *
+ * 每个调用方一个队列，任务提交到底层执行器的只是一个“取下一个任务”的动作，
+ * 真正执行哪个任务按加权轮询从各个队列中选取：轮到某个调用方时最多连续执行weight个任务，然后排到队尾
+ * 这样某个连接瞬间涌入大量请求时，只会排在它自己的队列里，不会让其他调用方的请求在后面一直等
+ *
+ * 提交和选取都只在很小的临界区内操作队列，底层执行器的任务数始终等于排队中的请求数，不会漏掉任务
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+class RpcFairScheduler {
+
+    private Executor executor;
+
+    /** 有待执行任务的调用方，按轮询顺序排列 */
+    private ArrayDeque<Flow> active = new ArrayDeque<Flow>();
+
+    /** 按身份区分的调用方，同一身份的多个连接共用一个队列 */
+    private ConcurrentHashMap<String, Flow> identities = new ConcurrentHashMap<String, Flow>();
+
+    private Runnable drain = new Runnable() {
+
+        @Override
+        public void run() {
+            Runnable task = next();
+            if (null != task) {
+                task.run();
+            }
+        }
+    };
+
+    RpcFairScheduler(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 获取身份对应的调用方，没有时创建一个
+     */
+    Flow getFlow(String identity, int weight) {
+        Flow flow = identities.get(identity);
+        if (null == flow) {
+            Flow created = new Flow(weight);
+            flow = identities.putIfAbsent(identity, created);
+            if (null == flow) {
+                flow = created;
+            }
+        }
+        return flow;
+    }
+
+    /**
+     * 提交任务到调用方的队列
+     */
+    void execute(Flow flow, Runnable task) {
+        synchronized (this) {
+            flow.queue.add(task);
+            if (flow.pending++ == 0) {
+                active.addLast(flow);
+            }
+        }
+        executor.execute(drain);
+    }
+
+    /**
+     * 按加权轮询选出下一个要执行的任务
+     */
+    private synchronized Runnable next() {
+        Flow flow = active.pollFirst();
+        if (null == flow) {
+            return null;
+        }
+        Runnable task = flow.queue.poll();
+        if (--flow.pending > 0) {
+            if (++flow.served < flow.weight) { // 本轮还没用完，继续排在最前面
+                active.addFirst(flow);
+            } else {
+                flow.served = 0;
+                active.addLast(flow);
+            }
+        } else {
+            flow.served = 0;
+        }
+        return task;
+    }
+
+    /**
+     * 正在排队的调用方个数
+     */
+    synchronized int getActiveFlows() {
+        return active.size();
+    }
+
+    /**
+     * 一个调用方的任务队列，所有字段都在{@link RpcFairScheduler}的锁内访问
+     */
+    static class Flow {
+
+        /** 轮到时最多连续执行的任务数 */
+        private int weight;
+
+        private ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+
+        /** 排队中的任务数 */
+        private int pending;
+
+        /** 本轮已执行的任务数 */
+        private int served;
+
+        Flow(int weight) {
+            this.weight = Math.max(1, weight);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package org.etnaframework.rpc.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.etnaframework.core.logging.Log;
+import org.etnaframework.core.util.ReflectionTools;
+import org.slf4j.Logger;
+import javassist.ClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+
+/**
+ * <pre>
+ * 实际调用远程方法实现的执行器，每个RPC方法对应一个
+ *
+ * 按速度从快到慢有以下几种实现方式，{@link #create(Object, Method)}会为每个方法单独选择能用的最快的一种：
+ * 1、{@link Type#JAVASSIST} 生成直接调用接口方法的类，定义在接口所在的classloader中，在某些classloader/JDK版本下无法生成
+ * 2、{@link Type#LAMBDA} 通过{@link LambdaMetafactory}生成，要求接口及参数类型对RPC框架的classloader可见，不支持void方法和超过5个参数的方法
+ * 3、{@link Type#METHOD_HANDLE} 通过{@link MethodHandle}调用，不生成类，任何classloader下都能使用
+ * 4、{@link Type#REFLECTION} 传统的反射调用，有装箱和{@link java.lang.reflect.InvocationTargetException}包装的开销
+ *
+ * 也可以延迟生成（见{@link #createLazy(RpcMeta, Object, Method, Executor)}），第一次调用前只用反射，不占用启动时间
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public abstract class RpcInvoker {
+
+    protected static final Logger log = Log.getLogger();
+
+    private static CtClass rpcInvokerCtClass = ReflectionTools.getCtClass(RpcInvoker.class);
+
+    /** 生成类的序号，防止同名的重载方法生成的类重名 */
+    private static AtomicInteger genId = new AtomicInteger();
+
+    /** 按参数个数对应的{@link LambdaMetafactory}函数接口 */
+    private static final Class<?>[] LAMBDA_INTERFACES = {
+        Fn0.class,
+        Fn1.class,
+        Fn2.class,
+        Fn3.class,
+        Fn4.class,
+        Fn5.class
+    };
+
+    /**
+     * 执行器的实现方式
+     */
+    public enum Type {
+        JAVASSIST,
+        LAMBDA,
+        METHOD_HANDLE,
+        REFLECTION
+    }
+
+    private Type type;
+
+    /**
+     * 执行对应的远程方法并获取返回结果
+     */
+    public abstract Object invoke(Object[] args) throws Throwable;
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * 为方法选择能用的最快的实现方式，某个方式生成失败只影响当前方法
+     */
+    public static RpcInvoker create(Object serviceBean, Method interfaceMethod) {
+        return create(serviceBean, interfaceMethod, null);
+    }
+
+    /**
+     * 同{@link #create(Object, Method)}，javassist生成类时使用指定的ClassPool
+     *
+     * @param pool 为null时使用公共的ClassPool，多个线程同时生成时每个线程需要使用自己的，见{@link #newClassPool()}
+     */
+    public static RpcInvoker create(Object serviceBean, Method interfaceMethod, ClassPool pool) {
+        for (Type type : Type.values()) {
+            try {
+                return create(type, serviceBean, interfaceMethod, pool);
+            } catch (Throwable e) {
+                log.debug("cannot create {} invoker for {}: {}", type, interfaceMethod, e.toString());
+            }
+        }
+        throw new IllegalStateException("cannot create invoker for " + interfaceMethod); // 反射方式不会失败，不会走到这里
+    }
+
+    /**
+     * 使用指定的实现方式生成执行器，无法生成时抛出异常
+     */
+    public static RpcInvoker create(Type type, Object serviceBean, Method interfaceMethod) throws Throwable {
+        return create(type, serviceBean, interfaceMethod, null);
+    }
+
+    private static RpcInvoker create(Type type, Object serviceBean, Method interfaceMethod, ClassPool pool) throws Throwable {
+        RpcInvoker invoker;
+        switch (type) {
+        case JAVASSIST:
+            invoker = createJavassist(serviceBean, interfaceMethod, pool);
+            break;
+        case LAMBDA:
+            invoker = createLambda(serviceBean, interfaceMethod);
+            break;
+        case METHOD_HANDLE:
+            invoker = new MethodHandleInvoker(serviceBean, interfaceMethod);
+            break;
+        default:
+            invoker = new ReflectionInvoker(serviceBean, interfaceMethod);
+            break;
+        }
+        invoker.type = type;
+        return invoker;
+    }
+
+    /**
+     * <pre>
+     * 新建一个独立的ClassPool，从公共的ClassPool能找到的地方读取类文件，但各自解析和缓存
+     *
+     * javassist的ClassPool内部有锁，但CtClass的类文件是用到时才解析的，多个线程同时解析同一个CtClass并不安全，
+     * 所以并行生成时每个线程使用自己的ClassPool，用完即丢弃，生成的类已经定义到classloader中，不受影响
+     * </pre>
+     */
+    public static ClassPool newClassPool() {
+        final ClassPool shared = rpcInvokerCtClass.getClassPool();
+        ClassPool pool = new ClassPool(false);
+        pool.appendClassPath(new ClassPath() {
+
+            @Override
+            public InputStream openClassfile(String classname) throws NotFoundException {
+                URL url = shared.find(classname);
+                if (null == url) {
+                    return null;
+                }
+                try {
+                    return url.openStream();
+                } catch (IOException e) {
+                    throw new NotFoundException(classname, e);
+                }
+            }
+
+            @Override
+            public URL find(String classname) {
+                return shared.find(classname);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return pool;
+    }
+
+    /**
+     * 延迟生成的执行器，生成之前使用反射调用，第一次被调用时交给generator在后台生成最快的实现，生成后替换掉meta中原有的执行器
+     */
+    static RpcInvoker createLazy(RpcMeta meta, Object serviceBean, Method interfaceMethod, Executor generator) {
+        RpcInvoker invoker = new LazyInvoker(meta, serviceBean, interfaceMethod, generator);
+        invoker.type = Type.REFLECTION;
+        return invoker;
+    }
+
+    /**
+     * <pre>
+     * 经测试发现，在另一个classloader加载的类是无法处理其他classloader里面的类的，会报错frozen class (cannot edit)
+     * 此时会抛出异常，由调用方换用其他方式
+     * </pre>
+     */
+    private static RpcInvoker createJavassist(Object serviceBean, Method interfaceMethod, ClassPool pool) throws Throwable {
+        Class<?> intf = interfaceMethod.getDeclaringClass();
+        CtClass superClass = null == pool ? rpcInvokerCtClass : pool.get(RpcInvoker.class.getName());
+        pool = superClass.getClassPool();
+        // 生成的class名称，使用interface.method.RpcInvoker序号来命名
+        String genClassName = intf.getName() + "." + interfaceMethod.getName() + "." + RpcInvoker.class.getSimpleName() + genId.incrementAndGet();
+        CtClass mc = pool.makeClass(genClassName);
+        mc.setSuperclass(superClass);
+        // 增加一个对serviceBean的引用，方便在invoke中调用，使用接口类型，避免serviceBean是代理类时无法访问
+        mc.addField(CtField.make("private " + sourceName(intf) + " service;", mc));
+        StringBuilder call = new StringBuilder("service.").append(interfaceMethod.getName()).append('(');
+        Class<?>[] paramTypes = interfaceMethod.getParameterTypes();
+        for (int i = 0; i < paramTypes.length; i++) {
+            if (i > 0) {
+                call.append(", ");
+            }
+            call.append(unbox(paramTypes[i], "args[" + i + "]"));
+        }
+        call.append(')');
+        Class<?> returnType = interfaceMethod.getReturnType();
+        String body = void.class.equals(returnType) ? call + "; return null;" : "return " + box(returnType, call.toString()) + ";";
+        mc.addMethod(CtNewMethod.make("public Object invoke(java.lang.Object[] args) throws java.lang.Throwable {" + body + "}", mc));
+        // 实例化，然后通过反射将serviceBean引用传入进去
+        Class<?> genClass = mc.toClass(intf.getClassLoader(), intf.getProtectionDomain());
+        RpcInvoker invoker = (RpcInvoker) genClass.newInstance();
+        Field f = genClass.getDeclaredField("service");
+        f.setAccessible(true);
+        f.set(invoker, serviceBean);
+        return invoker;
+    }
+
+    private static RpcInvoker createLambda(Object serviceBean, Method interfaceMethod) throws Throwable {
+        Class<?>[] paramTypes = interfaceMethod.getParameterTypes();
+        Class<?> returnType = interfaceMethod.getReturnType();
+        if (paramTypes.length >= LAMBDA_INTERFACES.length || void.class.equals(returnType)) {
+            throw new UnsupportedOperationException("void method or too many parameters");
+        }
+        // 生成的类定义在本类的classloader中，如果用到的类型对它不可见，要到第一次调用时才会报错，所以这里提前检查
+        checkVisible(interfaceMethod.getDeclaringClass());
+        checkVisible(returnType);
+        Class<?>[] wrappedTypes = new Class<?>[paramTypes.length];
+        for (int i = 0; i < paramTypes.length; i++) {
+            checkVisible(paramTypes[i]);
+            wrappedTypes[i] = MethodType.methodType(paramTypes[i]).wrap().returnType();
+        }
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle impl = lookup.unreflect(interfaceMethod);
+        Class<?> fnClass = LAMBDA_INTERFACES[paramTypes.length];
+        MethodType samType = MethodType.genericMethodType(paramTypes.length);
+        MethodType instantiatedType = MethodType.methodType(MethodType.methodType(returnType).wrap().returnType(), wrappedTypes);
+        CallSite site = LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(fnClass, interfaceMethod.getDeclaringClass()), samType, impl, instantiatedType);
+        return new LambdaInvoker(site.getTarget().invoke(serviceBean), paramTypes.length);
+    }
+
+    private static void checkVisible(Class<?> type) throws ClassNotFoundException {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive()) {
+            return;
+        }
+        if (Class.forName(type.getName(), false, RpcInvoker.class.getClassLoader()) != type) {
+            throw new ClassNotFoundException(type.getName() + " is loaded by another classloader");
+        }
+    }
+
+    /**
+     * 类型在javassist源码中的写法
+     */
+    private static String sourceName(Class<?> type) {
+        if (type.isArray()) {
+            return sourceName(type.getComponentType()) + "[]";
+        }
+        return type.getName();
+    }
+
+    /**
+     * 生成将Object转换成参数类型的源码
+     */
+    private static String unbox(Class<?> type, String expr) {
+        if (type.isPrimitive()) {
+            Class<?> wrapper = MethodType.methodType(type).wrap().returnType();
+            return "((" + wrapper.getName() + ") " + expr + ")." + type.getName() + "Value()";
+        }
+        return "(" + sourceName(type) + ") " + expr;
+    }
+
+    /**
+     * 生成将返回值转换成Object的源码
+     */
+    private static String box(Class<?> type, String expr) {
+        if (type.isPrimitive()) {
+            Class<?> wrapper = MethodType.methodType(type).wrap().returnType();
+            return wrapper.getName() + ".valueOf(" + expr + ")";
+        }
+        return expr;
+    }
+
+    private static class MethodHandleInvoker extends RpcInvoker {
+
+        private final MethodHandle handle;
+
+        MethodHandleInvoker(Object serviceBean, Method interfaceMethod) throws IllegalAccessException {
+            interfaceMethod.setAccessible(true);
+            int paramCount = interfaceMethod.getParameterTypes().length;
+            handle = MethodHandles.lookup().unreflect(interfaceMethod).bindTo(serviceBean).asSpreader(Object[].class, paramCount).asType(MethodType.methodType(Object.class, Object[].class));
+        }
+
+        @Override
+        public Object invoke(Object[] args) throws Throwable {
+            return (Object) handle.invokeExact(args);
+        }
+    }
+
+    private static class ReflectionInvoker extends RpcInvoker {
+
+        private final Object serviceBean;
+
+        private final Method method;
+
+        ReflectionInvoker(Object serviceBean, Method interfaceMethod) {
+            this.serviceBean = serviceBean;
+            this.method = interfaceMethod;
+        }
+
+        @Override
+        public Object invoke(Object[] args) throws Throwable {
+            return method.invoke(serviceBean, args);
+        }
+    }
+
+    private static class LazyInvoker extends ReflectionInvoker {
+
+        private final RpcMeta meta;
+
+        private final Object serviceBean;
+
+        private final Method interfaceMethod;
+
+        private final Executor generator;
+
+        /** 是否已经开始生成，只生成一次 */
+        private final AtomicBoolean generating = new AtomicBoolean();
+
+        LazyInvoker(RpcMeta meta, Object serviceBean, Method interfaceMethod, Executor generator) {
+            super(serviceBean, interfaceMethod);
+            this.meta = meta;
+            this.serviceBean = serviceBean;
+            this.interfaceMethod = interfaceMethod;
+            this.generator = generator;
+        }
+
+        @Override
+        public Object invoke(Object[] args) throws Throwable {
+            if (!generating.get() && generating.compareAndSet(false, true)) {
+                generator.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        long begin = System.nanoTime();
+                        RpcInvoker invoker = create(serviceBean, interfaceMethod);
+                        meta.setInvoker(invoker);
+                        log.debug("lazy {} invoker generated for {} in {}us", invoker.getType(), meta.getName(), (System.nanoTime() - begin) / 1000);
+                    }
+                });
+            }
+            return super.invoke(args);
+        }
+    }
+
+    private static class LambdaInvoker extends RpcInvoker {
+
+        private final Object fn;
+
+        private final int paramCount;
+
+        LambdaInvoker(Object fn, int paramCount) {
+            this.fn = fn;
+            this.paramCount = paramCount;
+        }
+
+        @Override
+        public Object invoke(Object[] args) throws Throwable {
+            switch (paramCount) {
+            case 0:
+                return ((Fn0) fn).invoke();
+            case 1:
+                return ((Fn1) fn).invoke(args[0]);
+            case 2:
+                return ((Fn2) fn).invoke(args[0], args[1]);
+            case 3:
+                return ((Fn3) fn).invoke(args[0], args[1], args[2]);
+            case 4:
+                return ((Fn4) fn).invoke(args[0], args[1], args[2], args[3]);
+            default:
+                return ((Fn5) fn).invoke(args[0], args[1], args[2], args[3], args[4]);
+            }
+        }
+    }
+
+    interface Fn0 {
+
+        Object invoke() throws Throwable;
+    }
+
+    interface Fn1 {
+
+        Object invoke(Object a0) throws Throwable;
+    }
+
+    interface Fn2 {
+
+        Object invoke(Object a0, Object a1) throws Throwable;
+    }
+
+    interface Fn3 {
+
+        Object invoke(Object a0, Object a1, Object a2) throws Throwable;
+    }
+
+    interface Fn4 {
+
+        Object invoke(Object a0, Object a1, Object a2, Object a3) throws Throwable;
+    }
+
+    interface Fn5 {
+
+        Object invoke(Object a0, Object a1, Object a2, Object a3, Object a4) throws Throwable;
+    }
+}
@@ -1,17 +1,38 @@
 package org.etnaframework.rpc.server;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.etnaframework.core.logging.Log;
 import org.etnaframework.core.spring.SpringContext;
+import org.etnaframework.core.spring.annotation.Config;
 import org.etnaframework.core.spring.annotation.OnContextInited;
 import org.etnaframework.core.util.ReflectionTools;
+import org.etnaframework.core.util.SystemInfo;
+import org.etnaframework.core.util.ThreadUtils.NamedThreadFactory;
+import org.etnaframework.rpc.annotation.RpcBulkhead;
+import org.etnaframework.rpc.annotation.RpcCacheable;
+import org.etnaframework.rpc.annotation.RpcIdempotent;
+import org.etnaframework.rpc.annotation.RpcNonBlocking;
 import org.etnaframework.rpc.annotation.RpcService;
 import org.slf4j.Logger;
+import org.springframework.aop.TargetSource;
+import org.springframework.aop.framework.Advised;
+import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.stereotype.Service;
+import javassist.ClassPool;
 
 /**
  * 初始化RPC容器，用于确定服务器端哪些Spring托管bean是可以远程调用的
@@ -24,16 +45,69 @@ public class RpcMappers {
 
     protected final Logger log = Log.getLogger();
 
+    /** 并行生成执行器时每个线程至少分到的方法数 */
+    private static final int MIN_INVOKERS_PER_THREAD = 32;
+
     /** 保存方法签名到具体调用方法的映射关系 */
-    private static Map<String, RpcMeta> map = Collections.emptyMap();
+    private static volatile Map<String, RpcMeta> map = Collections.emptyMap();
+
+    /** 线程池名称到{@link RpcBulkhead}声明的独立线程池的映射，和{@link #map}一起整体替换，替换后只读 */
+    private static volatile Map<String, RpcBulkheadExecutor> bulkheads = Collections.emptyMap();
+
+    /** 启动时生成方法执行器的线程数，小于等于1时在当前线程中逐个生成 */
+    @Config(value = "etna.rpc.server.invokerThreads", resetable = false)
+    private int invokerThreads = SystemInfo.CORE_PROCESSOR_NUM;
+
+    /**
+     * <pre>
+     * 是否延迟生成方法执行器，开启后启动时只做映射和校验，方法第一次被调用时才在后台生成，生成完之前使用反射调用
+     * 方法很多、但大部分很少被调用时可以明显加快启动
+     * </pre>
+     */
+    @Config(value = "etna.rpc.server.lazyInvoker", resetable = false)
+    private boolean lazyInvoker = false;
 
     /**
      * 遍历SpringContext，找出所有标注了{@link RpcService}的托管bean，初始化所有可远程调用的接口
      */
     @OnContextInited
     protected void init() throws Throwable {
-        map = new LinkedHashMap<String, RpcMeta>();
-        Collection<Object> beans = SpringContext.getBeansWithAnnotation(RpcService.class).values();
+        init(SpringContext.getBeansWithAnnotation(RpcService.class).values());
+    }
+
+    /**
+     * 使用指定的服务bean初始化，不依赖Spring容器，可用于嵌入式启动RPC服务（如基准测试）
+     */
+    public void init(Collection<Object> beans) throws Throwable {
+        long begin = System.nanoTime();
+        Map<String, RpcMeta> map = new LinkedHashMap<String, RpcMeta>(); // 执行器都准备好后再替换，之前收到的请求不会用到还没有执行器的方法
+        Map<String, RpcBulkheadExecutor> bulkheads = new LinkedHashMap<String, RpcBulkheadExecutor>();
+        long mappedNanos;
+        try {
+            mapMethods(beans, map, bulkheads);
+            mappedNanos = System.nanoTime() - begin;
+            initInvokers(new ArrayList<RpcMeta>(map.values()));
+        } catch (Throwable e) { // 失败时不会替换，已创建的线程池不会再被用到
+            shutdown(bulkheads.values());
+            throw e;
+        }
+        Map<String, RpcBulkheadExecutor> replaced = RpcMappers.bulkheads;
+        RpcMappers.bulkheads = Collections.unmodifiableMap(bulkheads);
+        RpcMappers.map = map;
+        shutdown(replaced.values()); // 之前的线程池中已提交的任务会继续执行完
+        Map<RpcInvoker.Type, Integer> invokerTypes = new EnumMap<RpcInvoker.Type, Integer>(RpcInvoker.Type.class);
+        for (RpcMeta meta : map.values()) {
+            Integer count = invokerTypes.get(meta.getInvokerType());
+            invokerTypes.put(meta.getInvokerType(), null == count ? 1 : count + 1);
+        }
+        log.info("RPC methods mapped: {}, invokers: {}{}, mapping {}ms, invokers {}ms", map.size(), invokerTypes, lazyInvoker ? " (lazy)" : "", TimeUnit.NANOSECONDS.toMillis(mappedNanos),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin - mappedNanos));
+    }
+
+    /**
+     * 将服务bean实现的接口方法映射到map中，{@link RpcBulkhead}声明的线程池放到bulkheads中
+     */
+    private void mapMethods(Collection<Object> beans, Map<String, RpcMeta> map, Map<String, RpcBulkheadExecutor> bulkheads) throws Throwable {
         for (Object serviceBean : beans) {
             Class<?> clazz = serviceBean.getClass();
             for (Class<?> intf : ReflectionTools.getAllInterfaces(clazz)) {
@@ -50,12 +124,119 @@ public class RpcMappers {
                             "RPC接口方法" + signature + "已经被映射到实现" + ReflectionTools.getMethodSingature(meta.getMethod()) + "，无法再被映射到" + ReflectionTools.getMethodSingature(implementMethod));
                     }
                     meta = RpcMeta.create(serviceBean, interfaceMethod, implementMethod, signature);
+                    // 方法上的注解优先，其次是类上的
+                    RpcBulkhead bulkhead = AnnotationUtils.findAnnotation(implementMethod, RpcBulkhead.class);
+                    if (null == bulkhead) {
+                        bulkhead = AnnotationUtils.findAnnotation(clazz, RpcBulkhead.class);
+                    }
+                    if (null != bulkhead) {
+                        meta.setBulkhead(getBulkhead(bulkheads, bulkhead));
+                    }
+                    RpcNonBlocking nonBlocking = AnnotationUtils.findAnnotation(implementMethod, RpcNonBlocking.class);
+                    if (null != nonBlocking) {
+                        if (meta.getStreamType().isStreaming()) {
+                            throw new IllegalArgumentException("RPC流式调用方法" + signature + "需要等待客户端的发送额度，不能加@" + RpcNonBlocking.class.getSimpleName());
+                        }
+                        if (null != bulkhead) {
+                            throw new IllegalArgumentException("RPC方法" + signature + "声明了在IO线程上直接执行，不会进入@" + RpcBulkhead.class.getSimpleName() + "线程池，两者不能同时使用");
+                        }
+                        meta.setInlineBudgetNanos(TimeUnit.MICROSECONDS.toNanos(nonBlocking.budgetMicros()));
+                    }
+                    if (null != AnnotationUtils.findAnnotation(implementMethod, RpcIdempotent.class)) {
+                        if (meta.getStreamType().isStreaming()) {
+                            throw new IllegalArgumentException("RPC流式调用方法" + signature + "的结果是分批发送的，无法合并调用，不能加@" + RpcIdempotent.class.getSimpleName());
+                        }
+                        meta.setCoalescer(new RpcCoalescer<Object>());
+                    }
+                    RpcCacheable cacheable = AnnotationUtils.findAnnotation(implementMethod, RpcCacheable.class);
+                    if (null != cacheable) {
+                        if (meta.getStreamType().isStreaming()) {
+                            throw new IllegalArgumentException("RPC流式调用方法" + signature + "的结果是分批发送的，无法缓存，不能加@" + RpcCacheable.class.getSimpleName());
+                        }
+                        if (cacheable.ttlSeconds() <= 0 || cacheable.maxWeight() <= 0) {
+                            throw new IllegalArgumentException("RPC方法" + signature + "的缓存有效期和最大总权重必须大于0");
+                        }
+                        meta.setCache(new RpcResultCache(cacheable));
+                        log.info("RPC cacheable method {} {}", signature, meta.getCache());
+                    }
+                    if (meta.getStreamType().isStreaming()) {
+                        log.info("RPC stream method {} ({})", signature, meta.getStreamType());
+                    }
                     map.put(signature, meta);
                 }
             }
         }
     }
 
+    /**
+     * <pre>
+     * 为所有方法生成执行器
+     *
+     * 延迟生成时只设置占位的执行器，由单独的后台线程在方法第一次被调用时生成
+     * 否则方法较多时分成invokerThreads份，在多个线程中并行生成，每个线程使用自己的javassist ClassPool
+     * </pre>
+     */
+    private void initInvokers(List<RpcMeta> metas) throws Throwable {
+        if (lazyInvoker) {
+            ThreadPoolExecutor generator = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("RpcInvokerGen-", Thread.MIN_PRIORITY));
+            generator.allowCoreThreadTimeOut(true); // 都生成完之后线程自动退出
+            for (RpcMeta meta : metas) {
+                meta.initLazyInvoker(generator);
+            }
+            return;
+        }
+        // 每份至少有若干个方法，方法很少时并行的开销比生成本身还大
+        int threads = Math.min(invokerThreads, metas.size() / MIN_INVOKERS_PER_THREAD);
+        if (threads <= 1) {
+            for (RpcMeta meta : metas) {
+                meta.initInvoker(null);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new NamedThreadFactory("RpcInvokerGen-", Thread.NORM_PRIORITY));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+            int size = (metas.size() + threads - 1) / threads;
+            for (int from = 0; from < metas.size(); from += size) { // 按顺序连续分段，同一个接口的方法大多在同一份中，少解析一些类
+                final List<RpcMeta> part = metas.subList(from, Math.min(from + size, metas.size()));
+                futures.add(pool.submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        ClassPool classPool = RpcInvoker.newClassPool();
+                        for (RpcMeta meta : part) {
+                            meta.initInvoker(classPool);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 获取{@link RpcBulkhead}声明的线程池，同名的共用一个
+     */
+    private RpcBulkheadExecutor getBulkhead(Map<String, RpcBulkheadExecutor> bulkheads, RpcBulkhead conf) {
+        RpcBulkheadExecutor executor = bulkheads.get(conf.value());
+        if (null == executor) {
+            executor = new RpcBulkheadExecutor(conf);
+            bulkheads.put(conf.value(), executor);
+            log.info("RPC bulkhead created: {}", executor);
+        } else if (!executor.sameAs(conf)) {
+            throw new IllegalArgumentException("RPC线程池" + conf.value() + "的配置不一致，已有配置为" + executor);
+        }
+        return executor;
+    }
+
     /**
      * 根据接口方法签名查找对应的实现，如果没有将返回null
      */
@@ -63,6 +244,102 @@ public class RpcMappers {
         return map.get(signature);
     }
 
+    /**
+     * 清除服务bean上指定方法的{@link RpcCacheable}缓存结果，供业务代码在数据变化时调用
+     *
+     * @param serviceBean 标注了{@link RpcService}的服务bean，也可以是AOP代理的目标对象，如在服务内部传入this
+     * @param methodName 方法名，有重载时全部清除，为null表示该bean上所有方法
+     * @return 清除的结果个数，没有任何缓存的方法对应时打警告日志
+     */
+    public int invalidateCache(Object serviceBean, String methodName) {
+        int count = 0;
+        boolean matched = false;
+        for (RpcMeta meta : map.values()) {
+            if (isCacheOf(meta, serviceBean, methodName)) {
+                matched = true;
+                count += meta.getCache().invalidateAll();
+            }
+        }
+        if (!matched) {
+            warnNoCache(serviceBean, methodName);
+        }
+        return count;
+    }
+
+    /**
+     * 清除服务bean上指定方法、指定参数的{@link RpcCacheable}缓存结果，参数按equals比较
+     *
+     * @return 清除的结果个数，没有任何缓存的方法对应时打警告日志
+     */
+    public int invalidateCache(Object serviceBean, String methodName, Object[] args) {
+        RpcCallKey key = new RpcCallKey(args);
+        int count = 0;
+        boolean matched = false;
+        for (RpcMeta meta : map.values()) {
+            if (isCacheOf(meta, serviceBean, methodName)) {
+                matched = true;
+                if (meta.getCache().invalidate(key)) {
+                    count++;
+                }
+            }
+        }
+        if (!matched) {
+            warnNoCache(serviceBean, methodName);
+        }
+        return count;
+    }
+
+    private boolean isCacheOf(RpcMeta meta, Object serviceBean, String methodName) {
+        return null != meta.getCache() && isSameBean(meta.getServiceBean(), serviceBean) && (null == methodName || meta.getMethod().getName().equals(methodName));
+    }
+
+    /**
+     * 是否是同一个服务bean，映射时保存的可能是AOP代理，而业务代码在服务内部传入的this是代理的目标对象
+     */
+    private static boolean isSameBean(Object mapped, Object serviceBean) {
+        if (mapped == serviceBean) {
+            return true;
+        }
+        if (mapped instanceof Advised) {
+            TargetSource ts = ((Advised) mapped).getTargetSource();
+            if (ts.isStatic()) { // 非单例的目标每次获取都可能是新的对象，不可能是传入的bean
+                try {
+                    return isSameBean(ts.getTarget(), serviceBean);
+                } catch (Exception e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 没有任何缓存对应传入的bean和方法名，通常是传错了bean或方法名，缓存中的旧数据不会被清除
+     */
+    private static void shutdown(Collection<RpcBulkheadExecutor> executors) {
+        for (RpcBulkheadExecutor executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 关闭所有{@link RpcBulkhead}声明的线程池，在服务关闭、处理中的请求都完成后调用
+     */
+    void shutdownBulkheads() {
+        shutdown(bulkheads.values());
+    }
+
+    private void warnNoCache(Object serviceBean, String methodName) {
+        log.warn("invalidateCache matched NO @RpcCacheable method, bean: {}, method: {}", null == serviceBean ? null : serviceBean.getClass().getName(), methodName);
+    }
+
+    /**
+     * 获取所有{@link RpcBulkhead}声明的独立线程池
+     */
+    public Collection<RpcBulkheadExecutor> getBulkheads() {
+        return bulkheads.values();
+    }
+
     private Map<String, RpcMeta> reverseRpcAllSortedMap;
 
     public Map<String, RpcMeta> getReverseRpcAllSortedMap() {
@@ -1,17 +1,17 @@
 package org.etnaframework.rpc.server;
 
-import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 import org.etnaframework.core.logging.Log;
-import org.etnaframework.core.util.ReflectionTools;
 import org.etnaframework.core.web.mapper.CmdMappers.StageTimeSpanStat;
 import org.etnaframework.rpc.codec.RpcRequest;
+import org.etnaframework.rpc.stat.RpcSlowCallSampler;
+import org.etnaframework.rpc.stat.RpcStageStat;
+import org.etnaframework.rpc.stream.RpcStreamType;
 import org.slf4j.Logger;
 import com.alibaba.fastjson.annotation.JSONField;
 import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.CtField;
-import javassist.CtNewMethod;
 
 /**
  * <pre>
@@ -23,20 +23,10 @@ import javassist.CtNewMethod;
  * @author BlackCat
  * @since 2014-04-14
  */
-public abstract class RpcMeta {
+public class RpcMeta {
 
     protected static final Logger log = Log.getLogger();
 
-    private static CtClass rpcMetaCtClass = ReflectionTools.getCtClass(RpcMeta.class);
-
-    /**
-     * <pre>
-     * 经测试发现，在另一个classloader加载的类是无法处理其他classloader里面的类的，会报错frozen class (cannot edit)
-     * 为了增加etna健壮性，当无法使用javassist方式生成类时，就使用传统的反射方式来实现
-     * </pre>
-     */
-    private static boolean useReflect = false;
-
     /** 接口调用统计 */
     private StageTimeSpanStat stat;
 
@@ -47,65 +37,141 @@ public abstract class RpcMeta {
     @JSONField(serialize = false, deserialize = false) // 防止调用/stat/rpc接口时打入access日志里面去了，冗余信息太多，不需要
     private Method method;
 
+    /** 结果返回方式，是否为流式调用 */
+    private RpcStreamType streamType = RpcStreamType.NONE;
+
+    /** 由{@link org.etnaframework.rpc.annotation.RpcBulkhead}指定的独立线程池，为null时使用公共线程池 */
+    private RpcBulkheadExecutor bulkhead;
+
+    /** 由{@link org.etnaframework.rpc.annotation.RpcNonBlocking}声明的直接在IO线程上执行时的时间预算，小于0表示放入业务线程池执行 */
+    private long inlineBudgetNanos = -1;
+
+    /** 在IO线程上执行超过时间预算的次数 */
+    private LongAdder inlineOverBudget = new LongAdder();
+
+    /** 上次打印超过时间预算日志的时间，用于限制日志频率 */
+    private volatile long lastOverBudgetLogTime;
+
+    /** 执行出错（业务代码抛出异常）的次数 */
+    private LongAdder errors = new LongAdder();
+
+    /** 因过载未执行直接拒绝的次数 */
+    private LongAdder shed = new LongAdder();
+
+    /** 被客户端取消的次数，见{@link RpcCancellation} */
+    private LongAdder cancelled = new LongAdder();
+
+    /** 收到的低优先级请求数 */
+    private LongAdder lowPriority = new LongAdder();
+
+    /** 流式调用累计发送的元素个数 */
+    private LongAdder streamElements = new LongAdder();
+
+    /** 由{@link org.etnaframework.rpc.annotation.RpcIdempotent}声明的合并相同参数并发调用的合并器，为null表示不合并 */
+    @JSONField(serialize = false, deserialize = false)
+    private RpcCoalescer<?> coalescer;
+
+    /** 由{@link org.etnaframework.rpc.annotation.RpcCacheable}声明的结果缓存，为null表示不缓存 */
+    @JSONField(serialize = false, deserialize = false)
+    private RpcResultCache cache;
+
+    /** 各个阶段的耗时分布 */
+    private RpcStageStat stages = new RpcStageStat();
+
+    /** 最慢的和最近超过阈值的调用 */
+    private RpcSlowCallSampler slowCalls = new RpcSlowCallSampler();
+
+    /** 实际调用远程方法实现的执行器，每个方法单独选择实现方式，延迟生成时会在后台被替换 */
+    @JSONField(serialize = false, deserialize = false)
+    private volatile RpcInvoker invoker;
+
+    /** 提供服务的bean，生成执行器和清除缓存时使用 */
+    @JSONField(serialize = false, deserialize = false)
+    private Object serviceBean;
+
+    /** 接口中的方法，生成执行器时使用 */
+    @JSONField(serialize = false, deserialize = false)
+    private Method interfaceMethod;
+
     /**
      * 执行对应的远程方法并获取返回结果
      */
-    public abstract Object invoke(Object[] args) throws Throwable;
+    public Object invoke(Object[] args) throws Throwable {
+        return invoker.invoke(args);
+    }
 
     /**
-     * 生成调用指定远程方法的{@link RpcMeta}
+     * 生成调用指定远程方法的{@link RpcMeta}，之后需要调用{@link #initInvoker(ClassPool)}或{@link #initLazyInvoker(Executor)}生成执行器
      */
-    static RpcMeta create(final Object serviceBean, final Method interfaceMethod, Method implementMethod, String interfaceSignature) throws Throwable {
-        if (!useReflect) {
-            try {
-                ClassPool pool = rpcMetaCtClass.getClassPool();
-                String genClassName = interfaceMethod.getDeclaringClass().getName() + "." + interfaceMethod.getName() + "." + rpcMetaCtClass.getSimpleName(); // 生成的class名称，使用interface.method.RpcMeta来命名
-                CtClass mc = pool.makeClass(genClassName);
-                mc.setSuperclass(rpcMetaCtClass);
-                // 增加一个对serviceBean的引用，方便在invoke中调用
-                String src = "private " + serviceBean.getClass().getName() + " service;";
-                mc.addField(CtField.make(src, mc));
-                src = "public Object invoke(" + Object[].class.getName() + " args) throws Throwable {" + "return service." + interfaceMethod.getName() + "(args);" + "}";
-                mc.addMethod(CtNewMethod.make(src, mc));
-                // 实例化，然后通过反射将serviceBean引用传入进去
-                RpcMeta cm = (RpcMeta) mc.toClass().newInstance();
-                Field f = cm.getClass().getDeclaredField("service");
-                f.setAccessible(true);
-                f.set(cm, serviceBean);
-                cm.signature = interfaceSignature;
-                cm.method = implementMethod;
-                cm.resetCounter(interfaceSignature);
-                return cm;
-            } catch (Throwable re) {
-                log.error("javassist cannot create, use reflection instead");
-                useReflect = true;
-            }
-        }
-        RpcMeta cm = new RpcMeta() {
-
-            @Override
-            public Object invoke(Object[] args) throws Throwable {
-                return interfaceMethod.invoke(serviceBean, args);
-            }
-        };
+    static RpcMeta create(Object serviceBean, Method interfaceMethod, Method implementMethod, String interfaceSignature) throws Throwable {
+        RpcMeta cm = new RpcMeta();
+        cm.serviceBean = serviceBean;
+        cm.interfaceMethod = interfaceMethod;
         cm.signature = interfaceSignature;
         cm.method = implementMethod;
+        cm.streamType = RpcStreamType.of(interfaceMethod);
         cm.resetCounter(interfaceSignature);
         return cm;
     }
 
+    /**
+     * 生成执行器
+     *
+     * @param pool javassist生成类时使用的ClassPool，为null时使用公共的，见{@link RpcInvoker#create(Object, Method, ClassPool)}
+     */
+    void initInvoker(ClassPool pool) {
+        invoker = RpcInvoker.create(serviceBean, interfaceMethod, pool);
+    }
+
+    /**
+     * 使用延迟生成的执行器，第一次被调用时才交给generator生成
+     */
+    void initLazyInvoker(Executor generator) {
+        invoker = RpcInvoker.createLazy(this, serviceBean, interfaceMethod, generator);
+    }
+
+    void setInvoker(RpcInvoker invoker) {
+        this.invoker = invoker;
+    }
+
+    Object getServiceBean() {
+        return serviceBean;
+    }
+
     public StageTimeSpanStat getStat() {
         return stat;
     }
 
     public void resetCounter(String name) {
         this.stat = new StageTimeSpanStat(name);
+        this.streamElements.reset();
+        this.shed.reset();
+        this.cancelled.reset();
+        this.lowPriority.reset();
+        this.errors.reset();
+        this.inlineOverBudget.reset();
+        this.stages = new RpcStageStat();
+        this.slowCalls = new RpcSlowCallSampler();
+        if (null != coalescer) {
+            coalescer.resetCounter();
+        }
+        if (null != cache) {
+            cache.resetCounter();
+        }
     }
 
     public void setStat(StageTimeSpanStat stat) {
         this.stat = stat;
     }
 
+    public RpcStageStat getStages() {
+        return stages;
+    }
+
+    public RpcSlowCallSampler getSlowCalls() {
+        return slowCalls;
+    }
+
     public String getName() {
         return signature;
     }
@@ -114,6 +180,115 @@ public abstract class RpcMeta {
         return method;
     }
 
+    /**
+     * 执行器的实现方式
+     */
+    public RpcInvoker.Type getInvokerType() {
+        return invoker.getType();
+    }
+
+    public RpcStreamType getStreamType() {
+        return streamType;
+    }
+
+    public RpcBulkheadExecutor getBulkhead() {
+        return bulkhead;
+    }
+
+    void setBulkhead(RpcBulkheadExecutor bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
+    public RpcCoalescer<?> getCoalescer() {
+        return coalescer;
+    }
+
+    void setCoalescer(RpcCoalescer<?> coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    public RpcResultCache getCache() {
+        return cache;
+    }
+
+    void setCache(RpcResultCache cache) {
+        this.cache = cache;
+    }
+
+    public long getStreamElements() {
+        return streamElements.sum();
+    }
+
+    void addStreamElements(int count) {
+        streamElements.add(count);
+    }
+
+    /**
+     * 是否直接在IO线程上执行
+     */
+    public boolean isInline() {
+        return inlineBudgetNanos >= 0;
+    }
+
+    void setInlineBudgetNanos(long inlineBudgetNanos) {
+        this.inlineBudgetNanos = inlineBudgetNanos;
+    }
+
+    public long getInlineBudgetNanos() {
+        return inlineBudgetNanos;
+    }
+
+    public long getInlineOverBudget() {
+        return inlineOverBudget.sum();
+    }
+
+    /**
+     * 检查在IO线程上的执行时间是否超出预算，超出时计数，并且每个方法每秒最多打印一次日志
+     */
+    void checkInlineBudget(long spanNanos) {
+        if (spanNanos <= inlineBudgetNanos) {
+            return;
+        }
+        inlineOverBudget.increment();
+        long now = System.currentTimeMillis();
+        if (now - lastOverBudgetLogTime >= 1000) {
+            lastOverBudgetLogTime = now;
+            log.warn("RPC non-blocking method {} took {}us on IO thread {}, budget {}us, over budget {} times", signature, spanNanos / 1000, Thread.currentThread().getName(), inlineBudgetNanos / 1000, inlineOverBudget.sum());
+        }
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    void addError() {
+        errors.increment();
+    }
+
+    public long getLowPriority() {
+        return lowPriority.sum();
+    }
+
+    void addLowPriority() {
+        lowPriority.increment();
+    }
+
+    public long getShed() {
+        return shed.sum();
+    }
+
+    void addShed() {
+        shed.increment();
+    }
+
+    public long getCancelled() {
+        return cancelled.sum();
+    }
+
+    void addCancelled() {
+        cancelled.increment();
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -0,0 +1,275 @@
+package org.etnaframework.rpc.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.etnaframework.rpc.annotation.RpcCacheable;
+import org.etnaframework.rpc.annotation.RpcCacheable.Eviction;
+import org.etnaframework.rpc.annotation.RpcCacheable.Weigher;
+import org.etnaframework.rpc.codec.RpcEncodedBody;
+
+/**
+ * <pre>
+ * {@link RpcCacheable}方法的执行结果缓存
+ *
+ * 按参数的哈希分成若干段，每段一个按访问顺序（LRU）或放入顺序（FIFO）排列的{@link LinkedHashMap}，各自加锁，减少并发访问时的锁竞争
+ * 过期的结果在读取时才清除，不需要额外的清理线程
+ * 每次清除缓存都会增加版本号，执行前读取的版本号与放入时不一致的结果不会放入缓存，避免清除缓存前就开始执行的调用把旧数据又放回去
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcResultCache {
+
+    /** 每段最少的权重，总权重较小时减少分段数，避免每段都放不下几个结果 */
+    private static final long MIN_SEGMENT_WEIGHT = 64;
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private Segment[] segments;
+
+    private long ttlNanos;
+
+    private long maxWeight;
+
+    private Weigher weigher;
+
+    private Eviction eviction;
+
+    private AtomicLong generation = new AtomicLong();
+
+    private LongAdder hits = new LongAdder();
+
+    private LongAdder misses = new LongAdder();
+
+    /** 因超过最大总权重被淘汰的个数 */
+    private LongAdder evictions = new LongAdder();
+
+    /** 因过期被清除的个数 */
+    private LongAdder expirations = new LongAdder();
+
+    RpcResultCache(RpcCacheable conf) throws Exception {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(conf.ttlSeconds());
+        this.maxWeight = conf.maxWeight();
+        this.weigher = conf.weigher().newInstance();
+        this.eviction = conf.eviction();
+        int n = 1;
+        while (n < MAX_SEGMENTS && n * 2 * MIN_SEGMENT_WEIGHT <= maxWeight) {
+            n <<= 1;
+        }
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(maxWeight / n, eviction == Eviction.LRU);
+        }
+    }
+
+    private Segment segment(RpcCallKey key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * 读取有效期内的结果，没有时返回null
+     */
+    Entry get(RpcCallKey key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry e = segment.get(key);
+            if (null != e && e.expireNanos - System.nanoTime() <= 0) {
+                segment.remove(key);
+                segment.weight -= e.weight;
+                expirations.increment();
+                e = null;
+            }
+            if (null == e) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+            return e;
+        }
+    }
+
+    /**
+     * 当前的版本号，执行前读取，放入结果时传回
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * 放入执行结果，执行期间缓存被清除过时不放入
+     */
+    void put(RpcCallKey key, long generation, Object[] args, Object result, RpcEncodedBody body) {
+        long weight = weigher.weigh(args, result);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            if (generation != this.generation.get() || weight > segment.maxWeight) {
+                return;
+            }
+            Entry old = segment.put(key, new Entry(result, body, weight, System.nanoTime() + ttlNanos));
+            if (null != old) {
+                segment.weight -= old.weight;
+            }
+            segment.weight += weight;
+            Iterator<Entry> it = segment.values().iterator();
+            while (segment.weight > segment.maxWeight && it.hasNext()) {
+                segment.weight -= it.next().weight;
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * 清除指定参数的结果，返回是否有结果被清除
+     */
+    boolean invalidate(RpcCallKey key) {
+        generation.incrementAndGet();
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry e = segment.remove(key);
+            if (null != e) {
+                segment.weight -= e.weight;
+            }
+            return null != e;
+        }
+    }
+
+    /**
+     * 清除所有结果，返回清除的个数
+     */
+    int invalidateAll() {
+        generation.incrementAndGet();
+        int count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.size();
+                segment.clear();
+                segment.weight = 0;
+            }
+        }
+        return count;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 命中率，百分比
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : h * 100.0 / total;
+    }
+
+    public String getHitRateText() {
+        return String.format("%.1f%%", getHitRate());
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * 当前缓存的结果个数（可能包括已过期还未清除的）
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 当前缓存的总权重
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long getTtlSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(ttlNanos);
+    }
+
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    void resetCounter() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        expirations.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "RpcResultCache [ttl=" + getTtlSeconds() + "s, maxWeight=" + maxWeight + ", eviction=" + eviction + ", segments=" + segments.length + "]";
+    }
+
+    /**
+     * 缓存的一个结果
+     */
+    static class Entry {
+
+        final Object result;
+
+        /** 序列化后的回包，没有开启共用时为null */
+        final RpcEncodedBody body;
+
+        final long weight;
+
+        final long expireNanos;
+
+        Entry(Object result, RpcEncodedBody body, long weight, long expireNanos) {
+            this.result = result;
+            this.body = body;
+            this.weight = weight;
+            this.expireNanos = expireNanos;
+        }
+    }
+
+    /**
+     * 一段缓存，需要在加锁后访问
+     */
+    @SuppressWarnings("serial")
+    private static class Segment extends LinkedHashMap<RpcCallKey, Entry> {
+
+        private final long maxWeight;
+
+        private long weight;
+
+        Segment(long maxWeight, boolean accessOrder) {
+            super(16, 0.75f, accessOrder);
+            this.maxWeight = maxWeight;
+        }
+    }
+}
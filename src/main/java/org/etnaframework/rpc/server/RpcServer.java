@@ -1,8 +1,20 @@
 package org.etnaframework.rpc.server;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.etnaframework.core.logging.Log;
 import org.etnaframework.core.spring.BootstrapModule;
 import org.etnaframework.core.spring.annotation.Config;
@@ -10,17 +22,23 @@ import org.etnaframework.core.spring.annotation.OnContextInited;
 import org.etnaframework.core.util.SystemInfo;
 import org.etnaframework.core.util.ThreadUtils.NamedThreadFactory;
 import org.etnaframework.rpc.codec.RpcCodecFactory;
+import org.etnaframework.rpc.stat.RpcTrafficHandler;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 
 /**
  * <pre>
@@ -31,6 +49,13 @@ import io.netty.channel.socket.nio.NioServerSocketChannel;
  * 并调用{@link #init()} -> {@link #bind()}来完成初始化启动并绑定端口
  *
  * 请在实现类的{@link #configure()}方法中设置将要使用的端口
+ *
+ * 进程退出时会优雅关闭：先停止接受新连接，通知客户端不要在现有连接上发送新请求，
+ * 等处理中的请求完成（最多etna.rpc.server.drainTimeoutMs）后再关闭连接，也可以主动调用{@link #shutdown()}
+ *
+ * 开启etna.rpc.server.domainSocket后，每个端口还会额外监听一个Unix域套接字{@link #getDomainSocketPath(String, int)}，
+ * 同一台机器上的其他进程的客户端开启etna.rpc.client.domainSocket后，发现该文件存在时会自动改用它连接，不走TCP协议栈，需要linux的epoll支持
+ * 套接字文件所在的目录必须只有当前用户可写，客户端也只连接属于同一用户的套接字文件，防止其他用户伪造套接字文件截获请求
  * </pre>
  *
  * @author BlackCat
@@ -49,17 +74,56 @@ public abstract class RpcServer implements BootstrapModule {
     /** RPC服务预备绑定的端口 */
     protected List<InetSocketAddress> ports = new ArrayList<InetSocketAddress>();
 
+    /** 请求包体达到该字节数时，IO线程上只解析头部，反序列化放到业务线程中进行，小于0表示全部在IO线程上反序列化，只对发送带头部数据包的客户端生效 */
+    @Config(value = "etna.rpc.server.lazyDecodeBytes", resetable = false)
+    protected int lazyDecodeBytes = -1;
+
     @Config(value = "etna.rpc.server.bossCount", resetable = false)
     private int bossCount = 1;
 
     @Config(value = "etna.rpc.server.workerCount", resetable = false)
     private int workerCount = SystemInfo.CORE_PROCESSOR_NUM * 2;
 
+    /** 是否额外监听Unix域套接字，供同一台机器上的其他进程使用 */
+    @Config(value = "etna.rpc.server.domainSocket", resetable = false)
+    private boolean domainSocket = false;
+
+    /** Unix域套接字文件所在的目录，需要与客户端的etna.rpc.client.domainSocketDir一致 */
+    @Config(value = "etna.rpc.server.domainSocketDir", resetable = false)
+    private String domainSocketDir = DEFAULT_DOMAIN_SOCKET_DIR;
+
+    /** Unix域套接字文件默认所在的目录，在用户主目录下，不使用/tmp这种所有用户都可以创建文件的目录 */
+    public static final String DEFAULT_DOMAIN_SOCKET_DIR = new File(System.getProperty("user.home"), ".etna-rpc").getPath();
+
+    /** 优雅关闭时等待处理中的请求完成的最长时间，小于等于0表示不等待直接关闭，单位毫秒 */
+    @Config(value = "etna.rpc.server.drainTimeoutMs", resetable = false)
+    private long drainTimeoutMs = 10000;
+
     @Autowired
     private RpcServerHandler rpcServerHandler;
 
     private ServerBootstrap bootstrap;
 
+    private EventLoopGroup bossGroup;
+
+    private EventLoopGroup workerGroup;
+
+    /** TCP和Unix域套接字共用的连接初始化 */
+    private ChannelInitializer<Channel> childInitializer;
+
+    /** Unix域套接字使用的epoll线程池，没有监听时为null */
+    private EventLoopGroup domainBossGroup;
+
+    private EventLoopGroup domainWorkerGroup;
+
+    /** 已绑定端口的监听连接 */
+    private List<Channel> serverChannels = new ArrayList<Channel>();
+
+    /** 已监听的Unix域套接字文件 */
+    private List<File> domainSocketFiles = new ArrayList<File>();
+
+    private AtomicBoolean shutdown = new AtomicBoolean();
+
     @Override
     public final List<InetSocketAddress> getPorts() {
         return ports;
@@ -68,7 +132,131 @@ public abstract class RpcServer implements BootstrapModule {
     @Override
     public final void bind() throws Throwable {
         for (InetSocketAddress isa : ports) {
-            bootstrap.bind(isa).await();
+            serverChannels.add(bootstrap.bind(isa).await().channel());
+        }
+        if (domainSocket) {
+            bindDomainSocket();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(getClass().getSimpleName() + "-Shutdown") {
+
+            @Override
+            public void run() {
+                shutdown();
+            }
+        });
+    }
+
+    /**
+     * 端口对应的Unix域套接字文件的路径
+     */
+    public static String getDomainSocketPath(String dir, int port) {
+        return new File(dir, "etna-rpc-" + port + ".sock").getPath();
+    }
+
+    /**
+     * 文件是否属于当前进程的用户
+     */
+    public static boolean isOwnedByCurrentUser(File file) {
+        try {
+            Path path = file.toPath();
+            UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+            return user.equals(Files.getOwner(path, LinkOption.NOFOLLOW_LINKS));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 目录是否只有当前进程的用户可以在其中创建文件，即属于当前用户并且同组和其他用户不可写
+     */
+    public static boolean isPrivateDir(File dir) {
+        if (!dir.isDirectory() || !isOwnedByCurrentUser(dir)) {
+            return false;
+        }
+        try {
+            Set<PosixFilePermission> perms = Files.getPosixFilePermissions(dir.toPath(), LinkOption.NOFOLLOW_LINKS);
+            return !perms.contains(PosixFilePermission.GROUP_WRITE) && !perms.contains(PosixFilePermission.OTHERS_WRITE);
+        } catch (IOException e) {
+            return false;
+        } catch (UnsupportedOperationException e) { // 不支持POSIX权限的文件系统
+            return false;
+        }
+    }
+
+    /**
+     * 为每个端口额外监听一个Unix域套接字，当前系统不支持epoll、目录不安全或监听失败时只打日志，不影响TCP端口
+     */
+    private void bindDomainSocket() {
+        if (!Epoll.isAvailable()) {
+            log.warn("epoll is NOT available, RPC domain socket disabled: {}", String.valueOf(Epoll.unavailabilityCause()));
+            return;
+        }
+        File dir = new File(domainSocketDir);
+        if (!dir.exists()) { // 新建的目录只有当前用户可以访问
+            try {
+                Files.createDirectories(dir.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } catch (IOException e) {
+                log.warn("can NOT create RPC domain socket dir {}, domain socket disabled: {}", dir, e.toString());
+                return;
+            }
+        }
+        if (!isPrivateDir(dir)) {
+            log.warn("RPC domain socket dir {} is NOT owned by current user or writable by others, domain socket disabled", dir);
+            return;
+        }
+        domainBossGroup = new EpollEventLoopGroup(1, new NamedThreadFactory("EpollBoss-" + getClass().getSimpleName() + "-", Thread.MAX_PRIORITY));
+        domainWorkerGroup = new EpollEventLoopGroup(workerCount, new NamedThreadFactory("EpollWorker-" + getClass().getSimpleName() + "-", Thread.MAX_PRIORITY));
+        ServerBootstrap domainBootstrap = new ServerBootstrap();
+        domainBootstrap.group(domainBossGroup, domainWorkerGroup);
+        domainBootstrap.channel(EpollServerDomainSocketChannel.class);
+        domainBootstrap.childHandler(childInitializer);
+        Map<Integer, File> files = new LinkedHashMap<Integer, File>(); // 绑定了多个IP的同一端口只需要一个
+        for (InetSocketAddress isa : ports) {
+            files.put(isa.getPort(), new File(getDomainSocketPath(domainSocketDir, isa.getPort())));
+        }
+        for (File file : files.values()) {
+            if (file.exists() && !file.delete()) { // 上次进程异常退出时留下的文件
+                log.warn("can NOT delete stale RPC domain socket {}, domain socket disabled for it", file);
+                continue;
+            }
+            ChannelFuture future = domainBootstrap.bind(new DomainSocketAddress(file)).awaitUninterruptibly();
+            if (!future.isSuccess()) {
+                log.warn("can NOT listen on RPC domain socket {}, domain socket disabled for it: {}", file, String.valueOf(future.cause()));
+                continue;
+            }
+            serverChannels.add(future.channel());
+            domainSocketFiles.add(file);
+            log.info("RPC server listening on domain socket {}", file);
+        }
+        if (domainSocketFiles.isEmpty()) { // 一个都没有监听成功
+            domainBossGroup.shutdownGracefully();
+            domainWorkerGroup.shutdownGracefully();
+            domainBossGroup = null;
+            domainWorkerGroup = null;
+        }
+    }
+
+    /**
+     * 优雅关闭RPC服务，只会执行一次
+     */
+    public void shutdown() {
+        if (!shutdown.compareAndSet(false, true)) {
+            return;
+        }
+        for (Channel channel : serverChannels) { // 先停止接受新连接
+            channel.close().awaitUninterruptibly();
+        }
+        for (File file : domainSocketFiles) { // 文件不存在后，客户端新建的连接会改用TCP
+            file.delete();
+        }
+        int remain = rpcServerHandler.drain(drainTimeoutMs);
+        log.info("RPC server {} shutdown, {} requests unfinished", getClass().getSimpleName(), remain);
+        rpcServerHandler.shutdownExecutors();
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+        if (null != domainBossGroup) {
+            domainBossGroup.shutdownGracefully();
+            domainWorkerGroup.shutdownGracefully();
         }
     }
 
@@ -78,8 +266,8 @@ public abstract class RpcServer implements BootstrapModule {
     @OnContextInited
     protected final void init() throws Throwable {
         // 线程池的名称采用模块的类名
-        EventLoopGroup bossGroup = new NioEventLoopGroup(bossCount, new NamedThreadFactory("NioBoss-" + getClass().getSimpleName() + "-", Thread.MAX_PRIORITY));
-        EventLoopGroup workerGroup = new NioEventLoopGroup(workerCount, new NamedThreadFactory("NioWorker-" + getClass().getSimpleName() + "-", Thread.MAX_PRIORITY));
+        bossGroup = new NioEventLoopGroup(bossCount, new NamedThreadFactory("NioBoss-" + getClass().getSimpleName() + "-", Thread.MAX_PRIORITY));
+        workerGroup = new NioEventLoopGroup(workerCount, new NamedThreadFactory("NioWorker-" + getClass().getSimpleName() + "-", Thread.MAX_PRIORITY));
 
         bootstrap = new ServerBootstrap();
         bootstrap.group(bossGroup, workerGroup);
@@ -88,16 +276,18 @@ public abstract class RpcServer implements BootstrapModule {
         bootstrap.childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
         bootstrap.childOption(ChannelOption.SO_RCVBUF, soRcvBuf);
 
-        bootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
+        childInitializer = new ChannelInitializer<Channel>() {
 
             @Override
-            protected void initChannel(SocketChannel ch) throws Exception {
+            protected void initChannel(Channel ch) throws Exception {
                 ChannelPipeline p = ch.pipeline();
-                p.addLast("decoder", RpcCodecFactory.createDecoder(rpcServerHandler));
+                p.addLast("traffic", RpcTrafficHandler.SERVER);
+                p.addLast("decoder", RpcCodecFactory.createDecoder(rpcServerHandler, lazyDecodeBytes));
                 p.addLast("encoder", RpcCodecFactory.createEncoder(rpcServerHandler));
                 p.addLast("handler", rpcServerHandler);
             }
-        });
+        };
+        bootstrap.childHandler(childInitializer);
 
         configure();
 
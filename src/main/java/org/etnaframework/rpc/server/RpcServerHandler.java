@@ -2,22 +2,50 @@ package org.etnaframework.rpc.server;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 import org.etnaframework.core.logging.Log;
-import org.etnaframework.core.util.StringTools;
+import org.etnaframework.core.spring.annotation.Config;
+import org.etnaframework.core.spring.annotation.OnContextInited;
+import org.etnaframework.core.util.JsonObjectUtils;
 import org.etnaframework.core.util.ThreadUtils;
-import org.etnaframework.core.web.DispatchFilter;
+import org.etnaframework.core.util.ThreadUtils.NamedThreadFactory;
+import org.etnaframework.rpc.annotation.RpcBulkhead.RejectPolicy;
+import org.etnaframework.rpc.codec.RpcEncodedBody;
+import org.etnaframework.rpc.codec.RpcFrame;
 import org.etnaframework.rpc.codec.RpcRequest;
 import org.etnaframework.rpc.codec.RpcResponse;
+import org.etnaframework.rpc.stat.RpcSlowCall;
+import org.etnaframework.rpc.stat.RpcSlowCallSampler;
 import org.slf4j.Logger;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.util.concurrent.Future;
-import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.Recycler;
+import io.netty.util.concurrent.GlobalEventExecutor;
 
 /**
  * RPC服务在服务器端的业务逻辑处理，由于没有状态信息，加了{@link Sharable}标注可以多{@link Channel}共享
@@ -27,16 +55,236 @@ import io.netty.util.concurrent.GenericFutureListener;
  */
 @Service
 @Sharable
-public class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
+public class RpcServerHandler extends SimpleChannelInboundHandler<Object> {
+
+    /** 开启公平调度时连接对应的调用方队列 */
+    private static final AttributeKey<RpcFairScheduler.Flow> FLOW = AttributeKey.valueOf(RpcFairScheduler.Flow.class.getName());
+
+    /** 连接上同时处理中的请求数 */
+    private static final AttributeKey<AtomicInteger> CONNECTION_IN_FLIGHT = AttributeKey.valueOf(RpcServerHandler.class.getName() + ".inFlight");
+
+    /** 连接上正在进行的流式调用，用于收到客户端追加额度时找到对应的发送器 */
+    private static final AttributeKey<Map<Long, RpcStreamSender>> STREAMS = AttributeKey.valueOf(RpcStreamSender.class.getName());
+
+    /** 连接上已接收、还没处理完的请求，用于按sequence找到被客户端取消的请求 */
+    private static final AttributeKey<Map<Long, RpcTask>> CALLS = AttributeKey.valueOf(RpcServerHandler.class.getName() + ".calls");
 
     protected final Logger log = Log.getLogger();
 
+    /** 业务代码在公共线程池中执行 */
+    public static final String EXECUTION_MODE_POOL = "pool";
+
+    /** 每个请求在一个新的虚拟线程中执行，需要JDK21及以上，运行时不支持时退回{@link #EXECUTION_MODE_POOL} */
+    public static final String EXECUTION_MODE_VIRTUAL = "virtual";
+
+    /**
+     * <pre>
+     * 业务代码的执行方式，见EXECUTION_MODE_开头的常量
+     * 业务代码大多阻塞在数据库和下游RPC上时，使用虚拟线程可以不受线程数限制地提高并发
+     * 声明了{@link org.etnaframework.rpc.annotation.RpcBulkhead}的方法仍然在各自的线程池中执行
+     * </pre>
+     */
+    @Config(value = "etna.rpc.server.executionMode", resetable = false)
+    private String executionMode = EXECUTION_MODE_POOL;
+
+    /** 公共的业务执行器，未初始化时使用公共线程池 */
+    private Executor executor;
+
+    /** 同时处理中（已接收未回包）的请求数上限，超过时新请求直接拒绝，小于等于0表示不限制 */
+    @Config(value = "etna.rpc.server.maxInFlight", resetable = false)
+    private int maxInFlight = -1;
+
+    /** 队列持续积压时允许的最长排队时间，超过的请求不执行直接拒绝，小于等于0表示不按排队时间丢弃，单位毫秒 */
+    @Config(value = "etna.rpc.server.queueTargetMs", resetable = false)
+    private long queueTargetMs = -1;
+
+    /** 判断队列是否持续积压的观察周期，同时也是未积压时允许的最长排队时间，单位毫秒 */
+    @Config(value = "etna.rpc.server.queueIntervalMs", resetable = false)
+    private long queueIntervalMs = 1000;
+
+    /**
+     * <pre>
+     * 是否开启公平调度，开启后每个连接（或{@link RpcAuthHandler#identity}给出的调用方）一个队列，按权重轮流执行
+     * 防止某个请求量大的客户端占满业务线程池，让其他客户端的请求长时间排队
+     * </pre>
+     */
+    @Config(value = "etna.rpc.server.fairScheduling", resetable = false)
+    private boolean fairScheduling = false;
+
+    /** 公平调度器，未开启时为null */
+    private RpcFairScheduler fairScheduler;
+
+    /**
+     * <pre>
+     * 单个连接同时处理中的请求数上限，达到后暂停从该连接读取数据（关闭autoRead），降到一半以下时恢复
+     * 这样背压能通过TCP窗口传递到发送过多请求的客户端，小于等于0表示不限制
+     * </pre>
+     */
+    @Config(value = "etna.rpc.server.maxInFlightPerConnection", resetable = false)
+    private int maxInFlightPerConnection = -1;
+
+    /** 低优先级请求最多占用maxInFlight的百分比，超过后新的低优先级请求直接拒绝 */
+    @Config(value = "etna.rpc.server.lowPriorityInFlightPercent", resetable = false)
+    private int lowPriorityInFlightPercent = 50;
+
+    /**
+     * <pre>
+     * 低优先级请求独立线程池的线程数，小于等于0（默认）表示与普通请求共用公共的业务执行器
+     * 此时请求优先级对执行没有任何作用，只在准入时受lowPriorityInFlightPercent限制，要让批处理不拖慢交互式请求必须配置大于0
+     * </pre>
+     */
+    @Config(value = "etna.rpc.server.lowPriorityThreads", resetable = false)
+    private int lowPriorityThreads = 0;
+
+    /** 低优先级请求独立线程池的队列长度，队列满时新的低优先级请求直接返回{@link RpcResponse#CODE_OVERLOADED} */
+    @Config(value = "etna.rpc.server.lowPriorityQueueSize", resetable = false)
+    private int lowPriorityQueueSize = 1000;
+
+    /** 低优先级请求的独立线程池，有界队列，未配置时为null */
+    private ExecutorService lowPriorityExecutor;
+
+    /** 因连接上处理中的请求过多暂停读取的次数 */
+    private LongAdder readPaused = new LongAdder();
+
+    /** 当前所有已接受的客户端连接，关闭时用于通知客户端 */
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    /** 是否正在关闭，开始后新建立的连接也会马上收到{@link RpcResponse#TYPE_GOAWAY} */
+    private volatile boolean draining;
+
+    /** 准入控制，初始化前不做任何限制 */
+    private RpcAdmissionController admission = new RpcAdmissionController(-1, -1, 0);
+
+    /** 流式调用时每批发送的最多元素个数 */
+    @Config("etna.rpc.server.streamBatchSize")
+    private int streamBatchSize = 64;
+
+    /** 流式调用时等待客户端追加发送额度的最长时间，超过后中止发送，单位毫秒 */
+    @Config("etna.rpc.server.streamMaxWaitCreditMs")
+    private long streamMaxWaitCreditMs = 15000;
+
+    /** 从收到请求到回包写完超过该时间的调用会被记录到最近慢调用列表中，小于0表示只记录最慢的几次，单位毫秒 */
+    @Config("etna.rpc.server.slowCallMs")
+    private long slowCallMs = 1000;
+
+    /** 出错时返回给客户端的堆栈的最大字符数，小于等于0表示只返回异常类名和消息 */
+    @Config("etna.rpc.server.errorStackMaxChars")
+    private int errorStackMaxChars = 4096;
+
+    /**
+     * <pre>
+     * 合并的调用是否共用序列化后的回包，开启后同一个结果只序列化一次
+     * 共用的包体中的sequence不是每个请求自己的，接收方以数据包头部的sequence为准，因此只对发送了带头部数据包的客户端连接生效，旧版本客户端的连接仍逐个序列化
+     * </pre>
+     */
+    @Config("etna.rpc.server.shareEncodedResponse")
+    private boolean shareEncodedResponse = false;
+
+    /** 客户端取消调用时，除了标记为取消（见{@link RpcCancellation}），是否还中断正在执行的线程，只有业务代码都能正确处理中断时才应开启 */
+    @Config("etna.rpc.server.interruptOnCancel")
+    private boolean interruptOnCancel = false;
+
     @Autowired
     private RpcMappers rpcMappers;
 
+    @Autowired
+    private RpcErrorReporter rpcErrorReporter;
+
     @Autowired(required = false)
     private RpcAuthHandler rpcAuthHandler;
 
+    @OnContextInited
+    protected void init() {
+        admission = new RpcAdmissionController(maxInFlight, lowPriorityInFlightPercent, queueTargetMs, queueIntervalMs);
+        executor = ThreadUtils.getDefault();
+        if (EXECUTION_MODE_VIRTUAL.equalsIgnoreCase(executionMode)) {
+            Executor virtual = newVirtualThreadExecutor();
+            if (null == virtual) {
+                log.warn("virtual thread is NOT supported by java {}, use pool instead", System.getProperty("java.version"));
+            } else {
+                executor = virtual;
+                log.info("RPC server execution mode: {}", EXECUTION_MODE_VIRTUAL);
+            }
+        }
+        if (lowPriorityThreads > 0) {
+            lowPriorityExecutor = new ThreadPoolExecutor(lowPriorityThreads, lowPriorityThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(lowPriorityQueueSize),
+                new NamedThreadFactory("RpcLowPriority-", Thread.MIN_PRIORITY));
+            log.info("RPC server low priority threads: {}, queue size: {}", lowPriorityThreads, lowPriorityQueueSize);
+        }
+        if (fairScheduling) {
+            fairScheduler = new RpcFairScheduler(executor);
+            log.info("RPC server fair scheduling enabled, maxInFlightPerConnection {}", maxInFlightPerConnection);
+        }
+    }
+
+    /**
+     * 通过反射创建每个任务一个虚拟线程的执行器，这样在JDK8下也能编译运行，运行时不支持时返回null
+     */
+    private static Executor newVirtualThreadExecutor() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "RpcVirtual-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (Executor) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private Executor getExecutor() {
+        return null == executor ? ThreadUtils.getDefault() : executor;
+    }
+
+    public RpcAdmissionController getAdmission() {
+        return admission;
+    }
+
+    public long getReadPaused() {
+        return readPaused.sum();
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * <pre>
+     * 优雅关闭：通知所有客户端不要再在当前连接上发送新请求，等处理中的请求（包括流式调用）全部完成或超时后关闭连接
+     * 调用前应先停止接受新连接，客户端收到通知前已发出的请求仍会正常处理
+     * 返回超时时仍未完成的请求数
+     * </pre>
+     */
+    public int drain(long timeoutMs) {
+        draining = true;
+        log.info("RPC server draining, connections {}, in flight {}", channels.size(), admission.getInFlight());
+        channels.writeAndFlush(RpcResponse.createGoAway());
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (admission.getInFlight() > 0 && System.currentTimeMillis() < deadline) {
+            ThreadUtils.sleep(20);
+        }
+        int remain = admission.getInFlight();
+        if (remain > 0) {
+            log.warn("RPC server drain TIMEOUT after {}ms, {} requests still in flight", timeoutMs, remain);
+        }
+        // 再发一次通知并在写完后关闭，连接上之前排队的回包会先写出去
+        for (Channel channel : channels) {
+            channel.writeAndFlush(RpcResponse.createGoAway()).addListener(ChannelFutureListener.CLOSE);
+        }
+        channels.newCloseFuture().awaitUninterruptibly(1000); // 进程退出前最多再等1秒让回包写完
+        return remain;
+    }
+
+    /**
+     * 关闭低优先级线程池和{@link org.etnaframework.rpc.annotation.RpcBulkhead}声明的线程池，在{@link #drain(long)}之后调用，剩余的任务会继续执行完
+     */
+    void shutdownExecutors() {
+        if (null != lowPriorityExecutor) {
+            lowPriorityExecutor.shutdown();
+        }
+        rpcMappers.shutdownBulkheads();
+    }
+
     /**
      * 异常处理，由于是全双工连接只要出现不能处理的异常，就必须把连接断开，否则接下来的数据可能全都乱了
      */
@@ -49,7 +297,7 @@ public class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
             }
             // 如果在日志配置了遇到异常发邮件就会自动发出
             String title = cause.getClass().getSimpleName() + ":" + RpcRequest.class.getSimpleName() + "From[" + ctx.channel().remoteAddress() + "]";
-            DispatchFilter.sendMail(title, cause);
+            rpcErrorReporter.report(cause.getClass().getName(), "connection", title, null, cause);
         } finally {
             ctx.close();
         }
@@ -63,66 +311,703 @@ public class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
             ctx.close();
         } else {
             log.info("accept RPC connect from {}", ctx.channel().remoteAddress());
+            channels.add(ctx.channel()); // 连接关闭时会自动移除
+            if (draining) {
+                ctx.channel().writeAndFlush(RpcResponse.createGoAway());
+            }
         }
     }
 
+    /**
+     * 连接断开，唤醒该连接上正在等待客户端追加额度的流式调用，让它们立即中止并释放业务线程
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        Map<Long, RpcStreamSender> streams = ctx.channel().attr(STREAMS).get();
+        if (null != streams) {
+            for (RpcStreamSender sender : streams.values()) {
+                sender.disconnected();
+            }
+        }
+        super.channelInactive(ctx);
+    }
+
     /**
      * 收到RPC请求，放入业务线程池处理
      */
     @Override
-    protected void channelRead0(final ChannelHandlerContext ctx, final RpcRequest req) throws Exception {
-        log.debug("[{}] -> {}", ctx.channel().remoteAddress(), req);
-        ThreadUtils.getDefault().execute(new Runnable() {
-
-            long startTime = System.currentTimeMillis(); // starttime
-
-            @Override
-            public void run() {
-                final RpcResponse resp = new RpcResponse();
-                resp.sequence = req.sequence;
-                RpcMeta rm = rpcMappers.getRpcMeta(req.signature);
-                Throwable t = null;
+    protected void channelRead0(final ChannelHandlerContext ctx, Object msg) throws Exception {
+        log.debug("[{}] -> {}", ctx.channel().remoteAddress(), msg);
+        if (msg instanceof RpcFrame) { // 包体较大，IO线程上只解析了头部，反序列化放到业务线程中进行
+            RpcFrame frame = (RpcFrame) msg;
+            if (frame.type == RpcRequest.TYPE_CALL) {
+                RpcMeta rm = rpcMappers.getRpcMeta(frame.signature);
+                admit(taskRecycler.get().init(ctx, rm, frame.sequence, frame.signature, null, frame));
+                return;
+            }
+            msg = frame.decode(); // 控制类请求的包体很小，直接在IO线程上反序列化
+        }
+        RpcRequest req = (RpcRequest) msg;
+        if (req.type == RpcRequest.TYPE_STREAM_CREDIT) { // 追加发送额度，处理很轻量，直接在IO线程上完成
+            RpcStreamSender sender = getStreams(ctx.channel()).get(req.sequence);
+            if (null != sender) {
+                sender.addCredit(req.credit);
+            }
+            return;
+        }
+        if (req.type == RpcRequest.TYPE_CANCEL) {
+            cancel(ctx, req.sequence);
+            return;
+        }
+        if (req.type == RpcRequest.TYPE_PING) { // 不经过准入和线程池，服务器过载时也能回包
+            RpcResponse resp = new RpcResponse();
+            resp.sequence = req.sequence;
+            ctx.channel().writeAndFlush(resp, ctx.channel().voidPromise());
+            return;
+        }
+        RpcMeta rm = rpcMappers.getRpcMeta(req.signature);
+        admit(taskRecycler.get().init(ctx, rm, req.sequence, req.signature, req, null));
+    }
+
+    /**
+     * 准入检查，同时处理中的请求数超过上限时直接拒绝
+     */
+    private void admit(RpcTask task) {
+        if (task.priority == RpcRequest.PRIORITY_LOW && null != task.rm) {
+            task.rm.addLowPriority();
+        }
+        if (!admission.tryEnter(task.priority == RpcRequest.PRIORITY_LOW)) {
+            task.reject("RPC Server is OVERLOADED, in flight " + admission.getInFlight());
+            task.recycle();
+            return;
+        }
+        if (maxInFlightPerConnection > 0) {
+            Channel channel = task.ctx.channel();
+            if (getConnectionInFlight(channel).incrementAndGet() >= maxInFlightPerConnection && channel.config().isAutoRead()) {
+                channel.config().setAutoRead(false);
+                readPaused.increment();
+                log.debug("[{}] too many requests in flight, pause reading", channel.remoteAddress());
+            }
+        }
+        if (null == task.rm || !task.rm.isInline() || null != task.frame) { // 在IO线程上直接执行的请求执行完之前不会处理取消请求，不必登记
+            task.calls = getCalls(task.ctx.channel());
+            task.calls.put(task.sequence, task);
+        }
+        dispatch(task.rm, task);
+    }
+
+    /**
+     * <pre>
+     * 客户端不再等待某个请求的结果，在IO线程上调用
+     *
+     * 还在排队的请求不再执行，正在执行的标记为取消（见{@link RpcCancellation}），执行完后不再回包，流式调用中止发送
+     * 请求已经处理完或者还没收到时忽略
+     * </pre>
+     */
+    private void cancel(ChannelHandlerContext ctx, long sequence) {
+        Map<Long, RpcTask> calls = ctx.channel().attr(CALLS).get();
+        RpcTask task = null == calls ? null : calls.get(sequence);
+        if (null != task) {
+            task.cancel(ctx, sequence);
+        }
+        // 先标记请求再中止发送，发送方因此抛出异常时已经能看到是被取消的，不会按出错报告
+        Map<Long, RpcStreamSender> streams = ctx.channel().attr(STREAMS).get();
+        RpcStreamSender sender = null == streams ? null : streams.get(sequence);
+        if (null != sender) {
+            sender.cancel();
+        }
+        log.debug("[{}] cancel sequence {}, found: {}", ctx.channel().remoteAddress(), sequence, null != task);
+    }
+
+    /**
+     * 请求处理完毕（包括被丢弃），与{@link #admit(RpcTask)}成功对应
+     */
+    private void release(RpcTask task) {
+        admission.exit();
+        if (maxInFlightPerConnection > 0) {
+            Channel channel = task.ctx.channel();
+            if (getConnectionInFlight(channel).decrementAndGet() <= maxInFlightPerConnection / 2 && !channel.config().isAutoRead()) {
+                channel.config().setAutoRead(true);
+            }
+        }
+    }
+
+    private AtomicInteger getConnectionInFlight(Channel channel) {
+        Attribute<AtomicInteger> attr = channel.attr(CONNECTION_IN_FLIGHT);
+        AtomicInteger inFlight = attr.get();
+        if (null == inFlight) {
+            AtomicInteger created = new AtomicInteger();
+            inFlight = attr.setIfAbsent(created);
+            if (null == inFlight) {
+                inFlight = created;
+            }
+        }
+        return inFlight;
+    }
+
+    /**
+     * 放入公共的业务执行器，开启公平调度时先放入调用方自己的队列，配置了低优先级线程池时低优先级请求放入独立的线程池
+     */
+    private void executeShared(RpcTask task) {
+        if (null != lowPriorityExecutor && task.priority == RpcRequest.PRIORITY_LOW) {
+            try {
+                lowPriorityExecutor.execute(task);
+            } catch (RejectedExecutionException e) { // 队列已满或服务正在关闭
+                release(task);
+                task.reject("RPC low priority queue is FULL, queue size " + lowPriorityQueueSize);
+                task.recycle();
+            }
+        } else if (null == fairScheduler) {
+            getExecutor().execute(task);
+        } else {
+            fairScheduler.execute(getFlow(task.ctx), task);
+        }
+    }
+
+    private RpcFairScheduler.Flow getFlow(ChannelHandlerContext ctx) {
+        Attribute<RpcFairScheduler.Flow> attr = ctx.channel().attr(FLOW);
+        RpcFairScheduler.Flow flow = attr.get();
+        if (null == flow) {
+            String identity = null == rpcAuthHandler ? null : rpcAuthHandler.identity(ctx);
+            int weight = null == rpcAuthHandler ? 1 : rpcAuthHandler.weight(ctx);
+            RpcFairScheduler.Flow created = null == identity ? new RpcFairScheduler.Flow(weight) : fairScheduler.getFlow(identity, weight);
+            flow = attr.setIfAbsent(created);
+            if (null == flow) {
+                flow = created;
+            }
+        }
+        return flow;
+    }
+
+    /**
+     * 将请求交给对应的线程池，方法声明了独立线程池的使用独立线程池，否则使用公共的业务执行器
+     * 声明为非阻塞的方法直接在当前IO线程上执行（包体较大需要反序列化的除外）
+     */
+    private void dispatch(RpcMeta rm, RpcTask task) {
+        if (null != rm && rm.isInline() && null == task.frame) {
+            long begin = System.nanoTime();
+            task.run();
+            rm.checkInlineBudget(System.nanoTime() - begin);
+            return;
+        }
+        RpcBulkheadExecutor bulkhead = null == rm ? null : rm.getBulkhead();
+        if (null == bulkhead) {
+            executeShared(task);
+        } else if (!bulkhead.execute(task)) { // 独立线程池已满
+            if (bulkhead.getRejectPolicy() == RejectPolicy.FALLBACK) {
+                executeShared(task);
+            } else {
+                release(task);
+                task.reject("RPC Bulkhead [" + bulkhead.getName() + "] is FULL, active " + bulkhead.getActive() + ", queued " + bulkhead.getQueued());
+                task.recycle();
+            }
+        }
+    }
+
+    /** 复用{@link RpcTask}，每个请求不必新建一个对象，在IO线程上获取，处理完毕后可能在其他线程上回收 */
+    private final Recycler<RpcTask> taskRecycler = new Recycler<RpcTask>() {
+
+        @Override
+        protected RpcTask newObject(Handle<RpcTask> handle) {
+            return new RpcTask(handle);
+        }
+    };
+
+    /**
+     * <pre>
+     * 在业务线程中执行的RPC请求，同时作为回包写出后的回调，统计编码和写出耗时
+     *
+     * 对象从{@link #taskRecycler}中获取，执行流程和写出回调都用完后才放回，见{@link #recycle()}
+     * 挂到相同调用上的请求归执行方所有，由执行方回包后回收
+     * 准入后登记到连接的{@link #CALLS}中，放回对象池前移除，客户端取消时按sequence找到并标记
+     * </pre>
+     */
+    private class RpcTask implements Runnable, ChannelFutureListener, RpcCancellation.Token {
+
+        private final Recycler.Handle<RpcTask> handle;
+
+        /** 还在使用本对象的地方的个数：执行流程本身，以及回包写出后的回调 */
+        private final AtomicInteger refs = new AtomicInteger();
+
+        private ChannelHandlerContext ctx;
+
+        private RpcMeta rm;
+
+        private long sequence;
+
+        private String signature;
+
+        /** 已反序列化的请求，为null时需要先从frame中反序列化 */
+        private RpcRequest req;
+
+        private RpcFrame frame;
+
+        /** 请求的优先级，包体较大时从头部解析得到 */
+        private byte priority;
+
+        private long startTime; // starttime
+
+        /** 进入队列的时间，用于计算排队时间 */
+        private long enqueueNanos;
+
+        private long queueNanos;
+
+        private long executeNanos;
+
+        /** 执行业务代码的线程，用于记录慢调用 */
+        private String thread;
+
+        /** 方法需要缓存结果或合并调用时，按参数生成的key */
+        private RpcCallKey callKey;
+
+        /** 缓存未命中时缓存的版本号 */
+        private long cacheGeneration;
+
+        /** 作为执行方合并相同参数的并发调用时不为null */
+        private RpcCoalescer.Call<RpcTask> call;
+
+        /** 正在写出的回包，写出后的回调中统计耗时 */
+        private RpcResponse resp;
+
+        private long writeBegin;
+
+        /** 登记了本请求的连接上的{@link #CALLS}，没有登记时为null */
+        private Map<Long, RpcTask> calls;
+
+        /** 客户端已经取消了本请求，在IO线程上设置 */
+        private volatile boolean cancelled;
+
+        /** 正在执行业务代码的线程，开启etna.rpc.server.interruptOnCancel时用于中断，读写都需要持有本对象的锁 */
+        private Thread runner;
+
+        RpcTask(Recycler.Handle<RpcTask> handle) {
+            this.handle = handle;
+        }
+
+        RpcTask init(ChannelHandlerContext ctx, RpcMeta rm, long sequence, String signature, RpcRequest req, RpcFrame frame) {
+            this.ctx = ctx;
+            this.rm = rm;
+            this.sequence = sequence;
+            this.signature = signature;
+            this.req = req;
+            this.frame = frame;
+            this.priority = null == req ? frame.priority : req.priority;
+            this.startTime = System.currentTimeMillis();
+            this.enqueueNanos = System.nanoTime();
+            this.queueNanos = 0;
+            this.executeNanos = 0;
+            this.cacheGeneration = 0;
+            this.cancelled = false;
+            refs.set(1);
+            return this;
+        }
+
+        /**
+         * 用完了本对象，最后一个用完的清空引用后放回对象池
+         */
+        void recycle() {
+            if (refs.decrementAndGet() == 0) {
+                if (null != calls) {
+                    calls.remove(sequence, this);
+                    calls = null;
+                }
+                ctx = null;
+                rm = null;
+                signature = null;
+                req = null;
+                frame = null;
+                thread = null;
+                callKey = null;
+                call = null;
+                resp = null;
+                handle.recycle(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean attached = false;
+            try {
+                long now = System.nanoTime();
+                queueNanos = now - enqueueNanos;
+                if (null != rm) {
+                    rm.getStages().getQueue().record(queueNanos);
+                }
+                if (cancelled) { // 还在排队时客户端就已经取消了
+                    log.debug("[{}] skip cancelled sequence {}", ctx.channel().remoteAddress(), sequence);
+                    return;
+                }
+                if (admission.shouldDrop(now - enqueueNanos, now, priority == RpcRequest.PRIORITY_LOW)) {
+                    reject("RPC Server is OVERLOADED, queued " + TimeUnit.NANOSECONDS.toMillis(now - enqueueNanos) + "ms");
+                    return;
+                }
+                if (null != rm && (null != rm.getCache() || null != rm.getCoalescer()) && decodeEarly()) {
+                    callKey = new RpcCallKey(req.args);
+                    if (null != rm.getCache() && replyCached()) {
+                        return;
+                    }
+                    if (null != rm.getCoalescer() && join()) {
+                        attached = true;
+                        return;
+                    }
+                }
+                execute();
+            } finally {
+                if (!attached) { // 挂到相同调用上的请求由执行方回包后释放
+                    release(this);
+                    recycle();
+                }
+            }
+        }
+
+        /**
+         * 查缓存和合并调用前需要先拿到参数，反序列化失败时返回false，交给execute按无法反序列化处理
+         */
+        private boolean decodeEarly() {
+            if (null == req) {
                 try {
-                    if (null != req.mdc) {
-                        MDC.setContextMap(req.mdc); // 客户端日志线程信息，用于在服务端打日志也能追溯到来源
+                    long begin = System.nanoTime();
+                    req = (RpcRequest) frame.decode();
+                    req.decodeNanos = System.nanoTime() - begin;
+                } catch (Throwable e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 有效期内有缓存的结果时直接回包，返回true；没有时记下缓存的版本号，执行后放入缓存
+         */
+        private boolean replyCached() {
+            RpcResultCache cache = rm.getCache();
+            RpcResultCache.Entry e = cache.get(callKey);
+            if (null == e) {
+                cacheGeneration = cache.getGeneration();
+                return false;
+            }
+            RpcResponse cached = new RpcResponse();
+            cached.result = e.result;
+            cached.sharedBody = shareEncodedResponse ? e.body : null;
+            reply(cached);
+            return true;
+        }
+
+        /**
+         * 合并相同参数的并发调用，挂到执行中的相同调用上时返回true，由执行方负责回包，之后本对象可能随时被回收，不能再修改
+         */
+        @SuppressWarnings("unchecked")
+        private boolean join() {
+            RpcCoalescer.Call<RpcTask> c = ((RpcCoalescer<RpcTask>) rm.getCoalescer()).join(callKey, this);
+            if (null == c) {
+                return true;
+            }
+            call = c;
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void execute() {
+            final RpcResponse resp = new RpcResponse();
+            resp.sequence = sequence;
+            Map<Long, RpcStreamSender> streams = null;
+            RpcStreamSender sender = null;
+            Throwable t = null;
+            try {
+                if (null == req) {
+                    long begin = System.nanoTime();
+                    req = (RpcRequest) frame.decode();
+                    req.decodeNanos = System.nanoTime() - begin;
+                }
+                if (null != rm) {
+                    rm.getStages().getDecode().record(req.decodeNanos);
+                }
+                if (null != req.mdc) {
+                    MDC.setContextMap(req.mdc); // 客户端日志线程信息，用于在服务端打日志也能追溯到来源
+                }
+                if (null == rm) {
+                    resp.code = RpcResponse.CODE_NO_SUCH_METHOD;
+                    resp.error = "No Such Method Implement On Server: " + signature;
+                } else if (rm.getStreamType().isStreaming()) {
+                    sender = new RpcStreamSender(ctx.channel(), sequence, req.credit, streamBatchSize, streamMaxWaitCreditMs);
+                    streams = getStreams(ctx.channel());
+                    streams.put(sequence, sender);
+                    long begin = System.nanoTime();
+                    enter();
+                    try {
+                        invokeStream(rm, req.args, sender);
+                    } finally {
+                        exit();
+                        executeNanos = System.nanoTime() - begin;
+                        rm.getStages().getExecute().record(executeNanos);
                     }
-                    if (null == rm) {
-                        resp.error = "No Such Method Implement On Server: " + req.signature + "\n" + Thread.currentThread().getName();
-                    } else {
+                    sender.complete(RpcResponse.CODE_OK, null, null);
+                } else {
+                    long begin = System.nanoTime();
+                    thread = Thread.currentThread().getName();
+                    enter();
+                    try {
                         resp.result = rm.invoke(req.args);
+                    } finally {
+                        exit();
+                        executeNanos = System.nanoTime() - begin;
+                        rm.getStages().getExecute().record(executeNanos);
                     }
-                } catch (Throwable ex) {
-                    if (ex instanceof InvocationTargetException) {
-                        t = ((InvocationTargetException) ex).getTargetException();
-                    } else {
-                        t = ex;
+                }
+            } catch (Throwable ex) {
+                if (ex instanceof InvocationTargetException) {
+                    t = ((InvocationTargetException) ex).getTargetException();
+                } else {
+                    t = ex;
+                }
+                resp.code = null == req ? RpcResponse.CODE_BAD_REQUEST : RpcResponse.CODE_SERVICE_EXCEPTION; // 反序列化失败时req还没有赋值
+                resp.errorClass = t.getClass().getName();
+                resp.error = RpcErrorReporter.describe(t, errorStackMaxChars);
+            } finally {
+                // 出现异常时需要报告出来，只用判断error是否为空即可，被取消而中止的不用报告
+                if (null != resp.error && !cancelled) {
+                    if (null != rm) {
+                        rm.addError();
                     }
-                    resp.error = StringTools.printThrowable(t) + Thread.currentThread().getName();
-                } finally {
-                    // 出现异常时需要报告出来，只用判断error是否为空即可
-                    if (null != resp.error) {
-                        String title = (null == t ? NoSuchMethodException.class.getSimpleName() : t.getClass().getSimpleName()) + ":" + RpcRequest.class.getSimpleName() + "From[" + ctx.channel().remoteAddress() + "]";
-                        DispatchFilter.sendMail(title, req.toString(), t);
+                    Class<?> errorType = null == t ? NoSuchMethodException.class : t.getClass();
+                    String title = errorType.getSimpleName() + ":" + RpcRequest.class.getSimpleName() + "From[" + ctx.channel().remoteAddress() + "]";
+                    rpcErrorReporter.report(errorType.getName(), signature, title, null == req ? frame : req, t);
+                }
+                List<RpcTask> followers = null;
+                if (null != call) { // 执行完毕后不再接受新的合并，之后到达的相同请求会重新执行
+                    followers = ((RpcCoalescer<RpcTask>) rm.getCoalescer()).finish(call);
+                    if (shareEncodedResponse && !followers.isEmpty()) {
+                        resp.sharedBody = new RpcEncodedBody();
                     }
-                    if (ctx.channel().isActive()) {
-                        ctx.channel().writeAndFlush(resp).addListener(new GenericFutureListener<Future<? super Void>>() {
-
-                            @Override
-                            public void operationComplete(Future<? super Void> future) throws Exception {
-                                log.debug("[{}] <- {}", ctx.channel().remoteAddress(), resp);
-                            }
-                        });
-                    } else {
-                        log.error("[{}] <:(Write Failed Channel Disconnected) {}", ctx.channel().remoteAddress(), resp);
+                }
+                if (null != callKey && null != rm.getCache() && null == resp.error) { // 只缓存正常返回的结果
+                    if (shareEncodedResponse && null == resp.sharedBody) {
+                        resp.sharedBody = new RpcEncodedBody();
                     }
-                    if (null != rm) {
-                        rm.getStat().record(System.currentTimeMillis(), startTime, rm);
+                    rm.getCache().put(callKey, cacheGeneration, req.args, resp.result, resp.sharedBody);
+                }
+                if (null != sender) {
+                    streams.remove(sequence);
+                    sender.complete(resp.code, resp.errorClass, resp.error); // 正常结束时已经发过结束标记了，这里只处理出错的情况
+                    rm.addStreamElements(sender.getSent());
+                } else if (cancelled) { // 客户端已经不等了，不必再序列化和发送
+                    log.debug("[{}] drop response of cancelled sequence {}", ctx.channel().remoteAddress(), sequence);
+                } else if (ctx.channel().isActive()) {
+                    this.resp = resp;
+                    refs.incrementAndGet(); // 写出后的回调还要用到本对象
+                    writeBegin = System.nanoTime();
+                    ctx.channel().writeAndFlush(resp).addListener(this);
+                } else {
+                    log.error("[{}] <:(Write Failed Channel Disconnected) {}", ctx.channel().remoteAddress(), resp);
+                }
+                if (null != rm) {
+                    rm.getStat().record(System.currentTimeMillis(), startTime, rm);
+                }
+                if (null != req && null != req.mdc) {
+                    MDC.clear(); // 清除当前线程中记录的TAG
+                }
+                if (null != followers) {
+                    for (RpcTask follower : followers) {
+                        try {
+                            if (!follower.cancelled) {
+                                follower.reply(resp);
+                            }
+                        } finally {
+                            release(follower);
+                            follower.recycle();
+                        }
                     }
-                    if (null != req.mdc) {
-                        MDC.clear(); // 清除当前线程中记录的TAG
+                }
+            }
+        }
+
+        /**
+         * 开始执行业务代码，之后客户端取消时业务代码可以通过{@link RpcCancellation}查询到
+         */
+        private void enter() {
+            RpcCancellation.CURRENT.set(this);
+            if (interruptOnCancel) {
+                synchronized (this) {
+                    runner = Thread.currentThread();
+                }
+            }
+        }
+
+        /**
+         * 业务代码执行完毕，之后不会再被中断，已经被中断的清除中断标记，线程还要继续处理其他请求
+         */
+        private void exit() {
+            RpcCancellation.CURRENT.remove();
+            if (interruptOnCancel) {
+                synchronized (this) {
+                    runner = null;
+                }
+                if (cancelled) {
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        /**
+         * 客户端取消了本请求，在IO线程上调用，对象已被回收重用于其他请求时忽略
+         */
+        synchronized void cancel(ChannelHandlerContext ctx, long sequence) {
+            if (this.ctx != ctx || this.sequence != sequence || cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (null != rm) {
+                rm.addCancelled();
+            }
+            if (null != runner && isCancelled()) {
+                runner.interrupt();
+            }
+        }
+
+        /**
+         * 合并了相同调用的执行方还要给其他请求回包，不让业务代码看到取消
+         */
+        @Override
+        public boolean isCancelled() {
+            return cancelled && (null == rm || null == rm.getCoalescer());
+        }
+
+        /**
+         * 回包写出完毕
+         */
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+            try {
+                if (null != rm && future.isSuccess()) { // 回包在IO线程上编码，编码完成后才会回调这里，可以直接读到编码耗时
+                    long now = System.nanoTime();
+                    long writeNanos = now - writeBegin - resp.encodeNanos;
+                    rm.getStages().getEncode().record(resp.encodeNanos);
+                    rm.getStages().getWrite().record(writeNanos);
+                    sample(now - enqueueNanos, resp.encodeNanos, writeNanos);
+                }
+                log.debug("[{}] <- {}", ctx.channel().remoteAddress(), resp);
+            } finally {
+                recycle();
+            }
+        }
+
+        /**
+         * 不执行业务代码，直接回复已有的结果（合并调用时执行方的结果或缓存的结果），出错时执行方已经报告过，不再重复报告
+         */
+        private void reply(RpcResponse source) {
+            RpcResponse resp = new RpcResponse();
+            resp.sequence = sequence;
+            resp.code = source.code;
+            resp.error = source.error;
+            resp.errorClass = source.errorClass;
+            resp.result = source.result;
+            resp.sharedBody = source.sharedBody;
+            if (null != resp.error) {
+                rm.addError();
+            }
+            if (ctx.channel().isActive()) {
+                ctx.channel().writeAndFlush(resp, ctx.channel().voidPromise());
+            } else {
+                log.error("[{}] <:(Write Failed Channel Disconnected) {}", ctx.channel().remoteAddress(), resp);
+            }
+            rm.getStat().record(System.currentTimeMillis(), startTime, rm);
+        }
+
+        /**
+         * 按总耗时判断是否需要记录为慢调用，需要时才组装现场信息，快的调用只有一次比较的开销
+         */
+        private void sample(long totalNanos, long encodeNanos, long writeNanos) {
+            RpcSlowCallSampler sampler = rm.getSlowCalls();
+            long thresholdNanos = slowCallMs < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+            if (!sampler.isCandidate(totalNanos, thresholdNanos)) {
+                return;
+            }
+            String args = null == req ? null : JsonObjectUtils.createJson(req.args);
+            long decodeNanos = null == req ? 0 : req.decodeNanos;
+            sampler.add(new RpcSlowCall(signature, args, String.valueOf(ctx.channel().remoteAddress()), thread, decodeNanos, queueNanos, executeNanos, encodeNanos, writeNanos, totalNanos), thresholdNanos);
+        }
+
+        /**
+         * 过载时不执行请求，直接给客户端返回{@link RpcResponse#CODE_OVERLOADED}，不发邮件，以免过载时邮件风暴
+         */
+        void reject(String error) {
+            RpcResponse resp = new RpcResponse();
+            resp.sequence = sequence;
+            resp.type = null != rm && rm.getStreamType().isStreaming() ? RpcResponse.TYPE_STREAM_END : RpcResponse.TYPE_RESULT;
+            resp.code = RpcResponse.CODE_OVERLOADED;
+            resp.error = error;
+            log.debug("[{}] <:(Rejected) {}", ctx.channel().remoteAddress(), resp);
+            ctx.channel().writeAndFlush(resp, ctx.channel().voidPromise());
+            if (null != rm) {
+                rm.addShed();
+            }
+        }
+    }
+
+    /**
+     * 执行流式调用，把结果逐个交给发送器
+     */
+    private void invokeStream(RpcMeta rm, Object[] args, RpcStreamSender sender) throws Throwable {
+        switch (rm.getStreamType()) {
+        case OBSERVER:
+            // 客户端传过来的回调参数是null，替换成服务器端的发送器
+            Object[] streamArgs = args.clone();
+            streamArgs[streamArgs.length - 1] = sender;
+            rm.invoke(streamArgs);
+            break;
+        case ITERATOR:
+            Iterator<?> it = (Iterator<?>) rm.invoke(args);
+            try {
+                while (null != it && it.hasNext()) {
+                    sender.onNext(it.next());
+                }
+            } finally {
+                if (it instanceof AutoCloseable) {
+                    ((AutoCloseable) it).close();
+                }
+            }
+            break;
+        case STREAM:
+            Stream<?> stream = (Stream<?>) rm.invoke(args);
+            if (null != stream) {
+                try {
+                    Iterator<?> si = stream.iterator();
+                    while (si.hasNext()) {
+                        sender.onNext(si.next());
                     }
+                } finally {
+                    stream.close();
                 }
             }
-        });
+            break;
+        default:
+            throw new IllegalArgumentException(rm.getName() + " is not a stream method");
+        }
+    }
+
+    private Map<Long, RpcTask> getCalls(Channel channel) {
+        Attribute<Map<Long, RpcTask>> attr = channel.attr(CALLS);
+        Map<Long, RpcTask> calls = attr.get();
+        if (null == calls) {
+            Map<Long, RpcTask> created = new ConcurrentHashMap<Long, RpcTask>();
+            calls = attr.setIfAbsent(created);
+            if (null == calls) {
+                calls = created;
+            }
+        }
+        return calls;
+    }
+
+    private Map<Long, RpcStreamSender> getStreams(Channel channel) {
+        Attribute<Map<Long, RpcStreamSender>> attr = channel.attr(STREAMS);
+        Map<Long, RpcStreamSender> streams = attr.get();
+        if (null == streams) {
+            Map<Long, RpcStreamSender> created = new ConcurrentHashMap<Long, RpcStreamSender>();
+            streams = attr.setIfAbsent(created);
+            if (null == streams) {
+                streams = created;
+            }
+        }
+        return streams;
     }
 }
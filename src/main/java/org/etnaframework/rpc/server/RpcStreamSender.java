@@ -0,0 +1,154 @@
+package org.etnaframework.rpc.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.etnaframework.rpc.codec.RpcResponse;
+import org.etnaframework.rpc.exception.RpcStreamAbortedException;
+import org.etnaframework.rpc.stream.RpcStreamObserver;
+import io.netty.channel.Channel;
+
+/**
+ * <pre>
+ * 服务器端流式调用的发送器，业务代码每产生一个元素就放入缓冲，攒够一批后发给客户端
+ *
+ * 发送受客户端给出的额度（credit）控制，额度用完后当前业务线程会阻塞等待客户端追加额度
+ * 这样客户端处理慢时服务器端不会无限制地堆积数据，内存占用只跟额度大小有关
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+class RpcStreamSender implements RpcStreamObserver<Object> {
+
+    private Channel channel;
+
+    private long sequence;
+
+    /** 每批发送的最多元素个数 */
+    private int batchSize;
+
+    /** 等待客户端追加额度的最长时间，单位毫秒 */
+    private long maxWaitCreditMs;
+
+    /** 当前还能发送的元素个数 */
+    private int credit;
+
+    /** 已发送的元素总数 */
+    private int sent;
+
+    private List<Object> batch;
+
+    /** 是否已经发出了结束标记 */
+    private boolean completed;
+
+    /** 客户端是否已经取消了调用，之后不再发送任何数据 */
+    private volatile boolean cancelled;
+
+    RpcStreamSender(Channel channel, long sequence, int initialCredit, int batchSize, long maxWaitCreditMs) {
+        this.channel = channel;
+        this.sequence = sequence;
+        this.credit = initialCredit;
+        this.batchSize = Math.max(1, Math.min(batchSize, initialCredit));
+        this.maxWaitCreditMs = maxWaitCreditMs;
+        this.batch = new ArrayList<Object>(this.batchSize);
+    }
+
+    @Override
+    public void onNext(Object value) {
+        batch.add(value);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * 收到客户端追加的发送额度，在IO线程上调用
+     */
+    synchronized void addCredit(int count) {
+        credit += count;
+        notifyAll();
+    }
+
+    /**
+     * 客户端取消了调用，在IO线程上调用，正在等待额度的发送方会立即中止
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    /**
+     * 连接已断开，在IO线程上调用，正在等待额度的发送方会立即中止，不必等到maxWaitCreditMs超时
+     */
+    synchronized void disconnected() {
+        notifyAll();
+    }
+
+    /**
+     * 等到额度足够时，把缓冲中的元素发出去
+     */
+    private void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int size = batch.size();
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + maxWaitCreditMs;
+            while (credit < size || cancelled) {
+                if (cancelled) {
+                    throw new RpcStreamAbortedException("stream is CANCELLED by " + channel.remoteAddress() + ", sequence " + sequence);
+                }
+                if (!channel.isActive()) {
+                    throw new RpcStreamAbortedException("connection " + channel.remoteAddress() + " is LOST, sequence " + sequence);
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new RpcStreamAbortedException("wait credit from " + channel.remoteAddress() + " TIMEOUT, sequence " + sequence);
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RpcStreamAbortedException("wait credit INTERRUPTED, sequence " + sequence, e);
+                }
+            }
+            credit -= size;
+        }
+        RpcResponse resp = new RpcResponse();
+        resp.sequence = sequence;
+        resp.type = RpcResponse.TYPE_STREAM_DATA;
+        resp.result = batch;
+        channel.writeAndFlush(resp);
+        sent += size;
+        batch = new ArrayList<Object>(batchSize);
+    }
+
+    /**
+     * 流式调用结束，发出剩余的元素和结束标记，error不为null时表示中途出错，缓冲中的元素将被丢弃
+     */
+    void complete(int code, String errorClass, String error) {
+        if (completed || cancelled) { // 客户端已经不再读取了，不必再发结束标记
+            return;
+        }
+        if (null == error) {
+            flush(); // 如果这里发送失败会抛出异常，由调用方再按出错结束
+        }
+        completed = true;
+        RpcResponse resp = new RpcResponse();
+        resp.sequence = sequence;
+        resp.type = RpcResponse.TYPE_STREAM_END;
+        resp.code = code;
+        resp.errorClass = errorClass;
+        resp.error = error;
+        if (channel.isActive()) {
+            channel.writeAndFlush(resp);
+        }
+    }
+
+    /**
+     * 已发送的元素总数
+     */
+    int getSent() {
+        return sent;
+    }
+}
@@ -0,0 +1,63 @@
+package org.etnaframework.rpc.stat;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个连接上收发的字节数和数据包数，由{@link RpcTrafficHandler}记录
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcChannelStat {
+
+    /** 对方的地址 */
+    private final String remote;
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final LongAdder readsIn = new LongAdder();
+
+    private final LongAdder writesOut = new LongAdder();
+
+    RpcChannelStat(String remote) {
+        this.remote = remote;
+    }
+
+    void addIn(int bytes) {
+        bytesIn.add(bytes);
+        readsIn.increment();
+    }
+
+    void addOut(int bytes) {
+        bytesOut.add(bytes);
+        writesOut.increment();
+    }
+
+    public String getRemote() {
+        return remote;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * 从socket读取的次数，一次可能包含多个或半个数据包
+     */
+    public long getReadsIn() {
+        return readsIn.sum();
+    }
+
+    /**
+     * 写出的数据包个数
+     */
+    public long getWritesOut() {
+        return writesOut.sum();
+    }
+}
@@ -0,0 +1,166 @@
+package org.etnaframework.rpc.stat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <pre>
+ * 客户端对某个远程服务器（host:port）的某个方法的调用统计，从调用方的角度记录，包含了网络、排队和序列化的时间
+ *
+ * 所有的统计放在一个全局的表中，与{@link org.etnaframework.rpc.client.RpcClientFactory}中的代理缓存一样按进程共享
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcClientStat {
+
+    private static final ConcurrentHashMap<String, RpcClientStat> stats = new ConcurrentHashMap<String, RpcClientStat>();
+
+    /** 远程服务器的host:port */
+    private final String endpoint;
+
+    /** 方法签名 */
+    private final String signature;
+
+    /** 调用次数，重试只算一次 */
+    private final LongAdder calls = new LongAdder();
+
+    /** 服务器端执行出错的次数 */
+    private final LongAdder errors = new LongAdder();
+
+    /** 等待回包超时的次数 */
+    private final LongAdder timeouts = new LongAdder();
+
+    /** 连接不上或连接丢失的次数，每次重试都计入 */
+    private final LongAdder connectFailures = new LongAdder();
+
+    /** 重试的次数 */
+    private final LongAdder retries = new LongAdder();
+
+    /** 服务器过载直接拒绝的次数 */
+    private final LongAdder overloaded = new LongAdder();
+
+    /** 请求序列化后的字节数 */
+    private final LongAdder bytesSent = new LongAdder();
+
+    /** 回包序列化后的字节数 */
+    private final LongAdder bytesReceived = new LongAdder();
+
+    /** 从发起调用到拿到结果（或抛出异常）的耗时，流式调用只计算到请求发出 */
+    private final RpcHistogram latency = new RpcHistogram();
+
+    private RpcClientStat(String endpoint, String signature) {
+        this.endpoint = endpoint;
+        this.signature = signature;
+    }
+
+    /**
+     * 获取对应的统计，没有时创建一个
+     */
+    public static RpcClientStat get(String endpoint, String signature) {
+        String key = endpoint + " " + signature;
+        RpcClientStat stat = stats.get(key);
+        if (null == stat) {
+            RpcClientStat created = new RpcClientStat(endpoint, signature);
+            stat = stats.putIfAbsent(key, created);
+            if (null == stat) {
+                stat = created;
+            }
+        }
+        return stat;
+    }
+
+    /**
+     * 所有的统计，按远程服务器和方法签名排序
+     */
+    public static List<RpcClientStat> getAll() {
+        List<RpcClientStat> list = new ArrayList<RpcClientStat>(stats.values());
+        Collections.sort(list, new Comparator<RpcClientStat>() {
+
+            @Override
+            public int compare(RpcClientStat o1, RpcClientStat o2) {
+                int c = o1.endpoint.compareTo(o2.endpoint);
+                return c != 0 ? c : o1.signature.compareTo(o2.signature);
+            }
+        });
+        return list;
+    }
+
+    public void addCall() {
+        calls.increment();
+    }
+
+    public void addError() {
+        errors.increment();
+    }
+
+    public void addTimeout() {
+        timeouts.increment();
+    }
+
+    public void addConnectFailure() {
+        connectFailures.increment();
+    }
+
+    public void addRetry() {
+        retries.increment();
+    }
+
+    public void addOverloaded() {
+        overloaded.increment();
+    }
+
+    public void addBytes(long sent, long received) {
+        bytesSent.add(sent);
+        bytesReceived.add(received);
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getOverloaded() {
+        return overloaded.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public RpcHistogram getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,308 @@
+package org.etnaframework.rpc.stat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <pre>
+ * 纳秒精度的耗时分布统计，参考HdrHistogram的对数-线性分桶
+ *
+ * 每个2的幂区间再等分为{@link #SUB_BUCKETS}个桶，相对误差不超过1/{@link #SUB_BUCKETS}（约6%），
+ * 可记录的最大值约为18分钟，超过的按最大值计，所有桶的内存占用固定，与调用量无关
+ * 桶在第一次记录时才分配，从没有记录过的统计（如很少被调用的方法的各个阶段）只占用很少的内存
+ *
+ * 记录时只有一次原子加法，不加锁；读取时复制一份快照，不影响记录
+ * 除了从创建起的累计分布{@link #snapshot()}，还按{@link #INTERVAL_MS}切分周期，
+ * 用{@link #getLastInterval()}获取最近一个完整周期的分布，用于观察当前的情况
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcHistogram {
+
+    /** 每个2的幂区间再等分的位数 */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** 可记录的最大值的位数，2^40纳秒约为18分钟 */
+    private static final int MAX_VALUE_BITS = 40;
+
+    public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    /** 桶的总数 */
+    public static final int BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /** 周期的长度，单位毫秒 */
+    public static final long INTERVAL_MS = 60000;
+
+    /** 没有任何记录时快照使用的桶，长度为0，按全部是0处理 */
+    private static final long[] EMPTY = new long[0];
+
+    /** 各个桶的次数，第一次记录时才分配 */
+    private volatile AtomicLongArray counts;
+
+    private final LongAdder sum = new LongAdder();
+
+    /** 当前周期开始时的累计快照 */
+    private Snapshot intervalStart;
+
+    /** 最近一个完整周期的分布 */
+    private Snapshot lastInterval;
+
+    public RpcHistogram() {
+        long now = System.currentTimeMillis();
+        intervalStart = new Snapshot(EMPTY, 0, 0, now);
+        lastInterval = new Snapshot(EMPTY, 0, now, now);
+    }
+
+    /**
+     * 记录一次耗时，单位纳秒，小于0的按0计
+     */
+    public void record(long nanos) {
+        long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+        AtomicLongArray c = counts;
+        if (null == c) {
+            c = initCounts();
+        }
+        c.incrementAndGet(indexOf(value));
+        sum.add(value);
+    }
+
+    private synchronized AtomicLongArray initCounts() {
+        if (null == counts) {
+            counts = new AtomicLongArray(BUCKETS);
+        }
+        return counts;
+    }
+
+    /**
+     * 从创建起的累计分布
+     */
+    public Snapshot snapshot() {
+        AtomicLongArray c = counts;
+        long[] copy = EMPTY;
+        if (null != c) {
+            copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = c.get(i);
+            }
+        }
+        long now = System.currentTimeMillis();
+        return new Snapshot(copy, sum.sum(), 0, now);
+    }
+
+    /**
+     * <pre>
+     * 直接从记录中按固定边界统计累计次数，不复制快照，用于按固定边界导出分布
+     * out[i]为不大于boundsNanos[i]的次数，boundsNanos需从小到大排列，返回总次数
+     * 边界落在桶中间时，该桶整个计入更大的边界，即略微低估小于边界的次数
+     * </pre>
+     */
+    public long countAtOrBelow(long[] boundsNanos, long[] out) {
+        AtomicLongArray counts = this.counts;
+        long c = 0;
+        int b = 0;
+        for (int i = 0; null != counts && i < BUCKETS; i++) {
+            long highest = highestValueOf(i);
+            while (b < boundsNanos.length && highest > boundsNanos[b]) {
+                out[b++] = c;
+            }
+            c += counts.get(i);
+        }
+        while (b < boundsNanos.length) {
+            out[b++] = c;
+        }
+        return c;
+    }
+
+    /**
+     * 从创建起的耗时总和，单位纳秒
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * <pre>
+     * 最近一个完整周期的分布
+     * 周期在读取时才切换，如果超过一个周期没有读取过，返回的分布覆盖的时间会比{@link #INTERVAL_MS}长，见{@link Snapshot#getDurationMs()}
+     * </pre>
+     */
+    public synchronized Snapshot getLastInterval() {
+        long now = System.currentTimeMillis();
+        if (now - intervalStart.time >= INTERVAL_MS) {
+            Snapshot current = snapshot();
+            lastInterval = current.minus(intervalStart);
+            intervalStart = current;
+        }
+        return lastInterval;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value); // 最高位所在的位置，>=SUB_BUCKET_BITS
+        int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 桶内的最大值，分位数按所在桶的最大值报告，保证不会低估
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * 某一时刻或某个周期内的分布，创建后不再改变
+     */
+    public static class Snapshot {
+
+        /** 各个桶的次数，长度可能为0，表示没有任何记录 */
+        private final long[] counts;
+
+        private final long count;
+
+        private final long sum;
+
+        /** 分布开始的时间，累计分布为0 */
+        private final long beginTime;
+
+        /** 分布截止的时间 */
+        private final long time;
+
+        Snapshot(long[] counts, long sum, long beginTime, long time) {
+            this.counts = counts;
+            this.sum = sum;
+            this.beginTime = beginTime;
+            this.time = time;
+            long c = 0;
+            for (long n : counts) {
+                c += n;
+            }
+            this.count = c;
+        }
+
+        /**
+         * 与更早的累计快照相减，得到两者之间的分布
+         */
+        Snapshot minus(Snapshot earlier) {
+            long[] diff = counts.length == 0 ? EMPTY : new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                diff[i] = counts[i] - (i < earlier.counts.length ? earlier.counts[i] : 0);
+            }
+            return new Snapshot(diff, sum - earlier.sum, earlier.time, time);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * 耗时的总和，单位纳秒
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * 平均耗时，单位纳秒
+         */
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * 指定分位的耗时，percentile取值0~100，单位纳秒，没有数据时返回0
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValueOf(i);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * 最大耗时，精度与分位数相同，单位纳秒
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestValueOf(i);
+                }
+            }
+            return 0;
+        }
+
+        public long getP50() {
+            return getValueAtPercentile(50);
+        }
+
+        public long getP90() {
+            return getValueAtPercentile(90);
+        }
+
+        public long getP99() {
+            return getValueAtPercentile(99);
+        }
+
+        public long getP999() {
+            return getValueAtPercentile(99.9);
+        }
+
+        /**
+         * 不大于指定值（单位纳秒）的次数，用于按固定边界导出分布
+         */
+        public long getCountAtOrBelow(long nanos) {
+            long c = 0;
+            for (int i = 0; i < counts.length && highestValueOf(i) <= nanos; i++) {
+                c += counts[i];
+            }
+            return c;
+        }
+
+        /**
+         * 分布覆盖的时间，累计分布返回0
+         */
+        public long getDurationMs() {
+            return beginTime == 0 ? 0 : time - beginTime;
+        }
+
+        /**
+         * 以p50/p90/p99/p999的格式显示，单位微秒
+         */
+        public String getSummary() {
+            if (count == 0) {
+                return "";
+            }
+            return micros(getP50()) + "/" + micros(getP90()) + "/" + micros(getP99()) + "/" + micros(getP999());
+        }
+
+        private static String micros(long nanos) {
+            long us = TimeUnit.NANOSECONDS.toMicros(nanos);
+            return us >= 10000 ? (us / 1000) + "ms" : us + "us";
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", p50/p90/p99/p999=" + getSummary() + ", max=" + micros(getMax());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.etnaframework.rpc.stat;
+
+import org.etnaframework.core.util.DatetimeUtils;
+import org.etnaframework.core.util.JsonObjectUtils;
+
+/**
+ * <pre>
+ * 客户端某个远程服务器上同一方法签名的正在等待回包的请求汇总，用于后端变慢时查看调用方都卡在哪些调用上
+ *
+ * 每次查看时遍历请求表现算，不在发送/回包的路径上做任何额外记录
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcInFlightStat {
+
+    /** 等待时间分布的各档上限，单位毫秒，最后一档是超过最大上限的 */
+    public static final long[] AGE_BOUNDS_MS = {
+        10,
+        100,
+        1000,
+        5000
+    };
+
+    private final String endpoint;
+
+    private final String signature;
+
+    private int count;
+
+    /** 等待最久的请求已等待的毫秒数 */
+    private long oldestMs;
+
+    /** 各档等待时间的请求数，见{@link #AGE_BOUNDS_MS} */
+    private final int[] ages = new int[AGE_BOUNDS_MS.length + 1];
+
+    public RpcInFlightStat(String endpoint, String signature) {
+        this.endpoint = endpoint;
+        this.signature = signature;
+    }
+
+    /**
+     * 计入一个已等待ageMs毫秒的请求
+     */
+    public void add(long ageMs) {
+        count++;
+        oldestMs = Math.max(oldestMs, ageMs);
+        int i = 0;
+        while (i < AGE_BOUNDS_MS.length && ageMs >= AGE_BOUNDS_MS[i]) {
+            i++;
+        }
+        ages[i]++;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getOldestMs() {
+        return oldestMs;
+    }
+
+    public int[] getAges() {
+        return ages;
+    }
+
+    /**
+     * 等待时间分布的文本形式，只列出有请求的档，如“<10ms:3 <1000ms:1 >=5000ms:2”
+     */
+    public String getAgeHistogram() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ages.length; i++) {
+            if (ages[i] == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(i < AGE_BOUNDS_MS.length ? "<" + AGE_BOUNDS_MS[i] : ">=" + AGE_BOUNDS_MS[AGE_BOUNDS_MS.length - 1]).append("ms:").append(ages[i]);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return endpoint + " " + signature + " in_flight=" + count + " oldest=" + oldestMs + "ms [" + getAgeHistogram() + "]";
+    }
+
+    /**
+     * 一个快要等待超时的请求，查看时生成，之后不再改变
+     */
+    public static class Call {
+
+        /** 参数转成字符串后保留的最大长度 */
+        public static final int MAX_ARGS_LENGTH = 256;
+
+        private final String endpoint;
+
+        private final String signature;
+
+        private final long sequence;
+
+        /** 请求发送的时间 */
+        private final long sendTime;
+
+        /** 已等待的毫秒数 */
+        private final long ageMs;
+
+        /** 客户端最多等待的毫秒数，即etna.rpc.client.maxWaitForMs */
+        private final long maxWaitMs;
+
+        /** 截断后的参数 */
+        private final String args;
+
+        public Call(String endpoint, String signature, long sequence, long sendTime, long ageMs, long maxWaitMs, Object[] args) {
+            this.endpoint = endpoint;
+            this.signature = signature;
+            this.sequence = sequence;
+            this.sendTime = sendTime;
+            this.ageMs = ageMs;
+            this.maxWaitMs = maxWaitMs;
+            String text = JsonObjectUtils.createJson(args);
+            this.args = null != text && text.length() > MAX_ARGS_LENGTH ? text.substring(0, MAX_ARGS_LENGTH) + "...(" + text.length() + ")" : text;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getSendTimeString() {
+            return DatetimeUtils.format(sendTime);
+        }
+
+        public long getAgeMs() {
+            return ageMs;
+        }
+
+        public long getMaxWaitMs() {
+            return maxWaitMs;
+        }
+
+        /** 距离等待超时还剩的毫秒数 */
+        public long getLeftMs() {
+            return Math.max(0, maxWaitMs - ageMs);
+        }
+
+        public String getArgs() {
+            return args;
+        }
+    }
+}
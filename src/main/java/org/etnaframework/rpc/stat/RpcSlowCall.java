@@ -0,0 +1,114 @@
+package org.etnaframework.rpc.stat;
+
+import java.util.concurrent.TimeUnit;
+import org.etnaframework.core.util.DatetimeUtils;
+
+/**
+ * 一次慢调用的现场信息，由{@link RpcSlowCallSampler}采集，创建后不再改变
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcSlowCall {
+
+    /** 参数转成字符串后保留的最大长度 */
+    public static final int MAX_ARGS_LENGTH = 256;
+
+    /** 回包写完的时间 */
+    private final long time = System.currentTimeMillis();
+
+    private final String signature;
+
+    /** 截断后的参数 */
+    private final String args;
+
+    private final String remote;
+
+    /** 执行业务代码的线程 */
+    private final String thread;
+
+    private final long decodeNanos;
+
+    private final long queueNanos;
+
+    private final long executeNanos;
+
+    private final long encodeNanos;
+
+    private final long writeNanos;
+
+    /** 从收到请求到回包写完的总耗时，不含IO线程上的反序列化 */
+    private final long totalNanos;
+
+    public RpcSlowCall(String signature, String args, String remote, String thread, long decodeNanos, long queueNanos, long executeNanos, long encodeNanos, long writeNanos, long totalNanos) {
+        this.signature = signature;
+        this.args = null != args && args.length() > MAX_ARGS_LENGTH ? args.substring(0, MAX_ARGS_LENGTH) + "...(" + args.length() + ")" : args;
+        this.remote = remote;
+        this.thread = thread;
+        this.decodeNanos = decodeNanos;
+        this.queueNanos = queueNanos;
+        this.executeNanos = executeNanos;
+        this.encodeNanos = encodeNanos;
+        this.writeNanos = writeNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getTimeString() {
+        return DatetimeUtils.format(time);
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public String getArgs() {
+        return args;
+    }
+
+    public String getRemote() {
+        return remote;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * 各阶段耗时，格式为decode/queue/execute/encode/write，单位微秒
+     */
+    public String getStages() {
+        return micros(decodeNanos) + "/" + micros(queueNanos) + "/" + micros(executeNanos) + "/" + micros(encodeNanos) + "/" + micros(writeNanos);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,134 @@
+package org.etnaframework.rpc.stat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <pre>
+ * 记录一个RPC方法最慢的{@link #SIZE}次调用，以及最近{@link #SIZE}次超过阈值的调用
+ *
+ * 调用方应先用{@link #isCandidate(long, long)}判断，只有需要记录时才去组装{@link RpcSlowCall}（参数转字符串等开销都在这里）
+ * 判断只读一个volatile变量，快的调用几乎没有额外开销；记录时用CAS替换，不加锁
+ * 并发记录时最慢列表可能会漏掉个别刚好同时到达的调用，对于排查问题没有影响
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcSlowCallSampler {
+
+    /** 最慢列表和最近列表各自的容量 */
+    public static final int SIZE = 16;
+
+    private static final Comparator<RpcSlowCall> SLOWEST_FIRST = new Comparator<RpcSlowCall>() {
+
+        @Override
+        public int compare(RpcSlowCall o1, RpcSlowCall o2) {
+            return Long.compare(o2.getTotalNanos(), o1.getTotalNanos());
+        }
+    };
+
+    private static final Comparator<RpcSlowCall> LATEST_FIRST = new Comparator<RpcSlowCall>() {
+
+        @Override
+        public int compare(RpcSlowCall o1, RpcSlowCall o2) {
+            return Long.compare(o2.getTime(), o1.getTime());
+        }
+    };
+
+    private final AtomicReferenceArray<RpcSlowCall> slowest = new AtomicReferenceArray<RpcSlowCall>(SIZE);
+
+    /** 最慢列表中最快的一次的耗时，列表未满时为-1，不超过它的调用不用进入最慢列表 */
+    private volatile long slowestFloor = -1;
+
+    /** 环形缓冲，新的覆盖最旧的 */
+    private final AtomicReferenceArray<RpcSlowCall> recent = new AtomicReferenceArray<RpcSlowCall>(SIZE);
+
+    private final AtomicLong recentIndex = new AtomicLong();
+
+    /**
+     * 是否需要记录本次调用，thresholdNanos小于0表示不记录超过阈值的调用
+     */
+    public boolean isCandidate(long totalNanos, long thresholdNanos) {
+        return totalNanos > slowestFloor || (thresholdNanos >= 0 && totalNanos >= thresholdNanos);
+    }
+
+    /**
+     * 记录一次调用，请先用{@link #isCandidate(long, long)}判断
+     */
+    public void add(RpcSlowCall call, long thresholdNanos) {
+        if (thresholdNanos >= 0 && call.getTotalNanos() >= thresholdNanos) {
+            recent.set((int) (recentIndex.getAndIncrement() % SIZE), call);
+        }
+        for (;;) {
+            int minIndex = -1;
+            RpcSlowCall min = null;
+            for (int i = 0; i < SIZE; i++) {
+                RpcSlowCall e = slowest.get(i);
+                if (null == e) { // 还有空位，直接放入
+                    minIndex = i;
+                    min = null;
+                    break;
+                }
+                if (null == min || e.getTotalNanos() < min.getTotalNanos()) {
+                    minIndex = i;
+                    min = e;
+                }
+            }
+            if (null != min && call.getTotalNanos() <= min.getTotalNanos()) {
+                return;
+            }
+            if (slowest.compareAndSet(minIndex, min, call)) {
+                updateFloor();
+                return;
+            }
+        }
+    }
+
+    private void updateFloor() {
+        long floor = Long.MAX_VALUE;
+        for (int i = 0; i < SIZE; i++) {
+            RpcSlowCall e = slowest.get(i);
+            if (null == e) {
+                floor = -1;
+                break;
+            }
+            floor = Math.min(floor, e.getTotalNanos());
+        }
+        slowestFloor = floor;
+    }
+
+    /**
+     * 最慢的调用，从慢到快排序
+     */
+    public List<RpcSlowCall> getSlowest() {
+        return copy(slowest, SLOWEST_FIRST);
+    }
+
+    /**
+     * 最近超过阈值的调用，从新到旧排序
+     */
+    public List<RpcSlowCall> getRecent() {
+        return copy(recent, LATEST_FIRST);
+    }
+
+    public boolean isEmpty() {
+        return null == slowest.get(0);
+    }
+
+    private static List<RpcSlowCall> copy(AtomicReferenceArray<RpcSlowCall> array, Comparator<RpcSlowCall> order) {
+        List<RpcSlowCall> list = new ArrayList<RpcSlowCall>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            RpcSlowCall e = array.get(i);
+            if (null != e) {
+                list.add(e);
+            }
+        }
+        Collections.sort(list, order);
+        return list;
+    }
+}
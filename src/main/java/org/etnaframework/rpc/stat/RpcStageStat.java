@@ -0,0 +1,50 @@
+package org.etnaframework.rpc.stat;
+
+/**
+ * <pre>
+ * 一个RPC方法在服务器端各个阶段的耗时分布
+ *
+ * decode  请求反序列化（IO线程上，或包体较大时在业务线程上）
+ * queue   从IO线程收到请求到业务线程开始执行的排队时间
+ * execute 执行业务代码
+ * encode  回包序列化（IO线程上）
+ * write   回包从提交给IO线程到写入socket完成，扣除encode的部分
+ *
+ * 通过对比各阶段可以判断慢是因为过载排队，还是方法本身执行慢，还是回包太大
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public class RpcStageStat {
+
+    private final RpcHistogram decode = new RpcHistogram();
+
+    private final RpcHistogram queue = new RpcHistogram();
+
+    private final RpcHistogram execute = new RpcHistogram();
+
+    private final RpcHistogram encode = new RpcHistogram();
+
+    private final RpcHistogram write = new RpcHistogram();
+
+    public RpcHistogram getDecode() {
+        return decode;
+    }
+
+    public RpcHistogram getQueue() {
+        return queue;
+    }
+
+    public RpcHistogram getExecute() {
+        return execute;
+    }
+
+    public RpcHistogram getEncode() {
+        return encode;
+    }
+
+    public RpcHistogram getWrite() {
+        return write;
+    }
+}
@@ -0,0 +1,95 @@
+package org.etnaframework.rpc.stat;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.AttributeKey;
+
+/**
+ * <pre>
+ * 统计每个连接收发的字节数，放在pipeline的最前面，看到的是编码后/解码前的原始数据
+ *
+ * 服务器端和客户端各用一个实例，分别记录所有存活的连接，连接断开后统计随之移除
+ * 连接建立时把统计对象挂到连接的属性上，每次收发直接从属性中取，不用查找全部连接的映射
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+@Sharable
+public class RpcTrafficHandler extends ChannelDuplexHandler {
+
+    /** RPC服务器端接受的连接 */
+    public static final RpcTrafficHandler SERVER = new RpcTrafficHandler("server");
+
+    /** RPC客户端发起的连接 */
+    public static final RpcTrafficHandler CLIENT = new RpcTrafficHandler("client");
+
+    /** 连接的收发统计，一个连接只属于服务器端或客户端之一，两个实例共用 */
+    private static final AttributeKey<RpcChannelStat> STAT = AttributeKey.valueOf(RpcChannelStat.class.getName());
+
+    private final String side;
+
+    private final Map<Channel, RpcChannelStat> channels = new ConcurrentHashMap<Channel, RpcChannelStat>();
+
+    private RpcTrafficHandler(String side) {
+        this.side = side;
+    }
+
+    public String getSide() {
+        return side;
+    }
+
+    /**
+     * 所有存活的连接的统计
+     */
+    public Collection<RpcChannelStat> getChannels() {
+        return Collections.unmodifiableCollection(channels.values());
+    }
+
+    /**
+     * 获取指定连接的统计，连接未经过本handler或已断开时返回null
+     */
+    public RpcChannelStat get(Channel channel) {
+        return channels.get(channel);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        RpcChannelStat stat = new RpcChannelStat(String.valueOf(ctx.channel().remoteAddress()));
+        ctx.channel().attr(STAT).set(stat);
+        channels.put(ctx.channel(), stat);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        channels.remove(ctx.channel());
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        RpcChannelStat stat = ctx.channel().attr(STAT).get();
+        if (null != stat && msg instanceof ByteBuf) {
+            stat.addIn(((ByteBuf) msg).readableBytes());
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        RpcChannelStat stat = ctx.channel().attr(STAT).get();
+        if (null != stat && msg instanceof ByteBuf) {
+            stat.addOut(((ByteBuf) msg).readableBytes());
+        }
+        super.write(ctx, msg, promise);
+    }
+}
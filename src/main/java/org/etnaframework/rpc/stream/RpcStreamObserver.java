@@ -0,0 +1,25 @@
+package org.etnaframework.rpc.stream;
+
+/**
+ * <pre>
+ * 流式RPC调用的回调接口，用于服务器端边生成边返回大量结果，避免一次性在内存中组装完整的列表
+ *
+ * 使用方式：在接口方法的最后一个参数声明为本接口，例如
+ * void scan(Query q, RpcStreamObserver&lt;Row&gt; observer);
+ *
+ * 服务器端实现时，每产生一个元素就调用一次{@link #onNext(Object)}，元素会分批发回客户端
+ * 当客户端处理不过来时{@link #onNext(Object)}会阻塞，直到客户端给出新的发送额度（背压）
+ *
+ * 客户端调用时，传入自己的实现，方法会一直阻塞到服务器端发送完毕，期间每收到一个元素就在调用线程上回调一次
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public interface RpcStreamObserver<T> {
+
+    /**
+     * 产生/收到一个元素
+     */
+    public void onNext(T value);
+}
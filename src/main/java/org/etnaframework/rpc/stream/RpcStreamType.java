@@ -0,0 +1,57 @@
+package org.etnaframework.rpc.stream;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * <pre>
+ * RPC方法的结果返回方式，服务器端和客户端都根据接口方法的声明来判断，不需要额外的注解
+ *
+ * 返回值是{@link Iterator}或{@link Stream}，或者最后一个参数是{@link RpcStreamObserver}的方法，按流式调用处理
+ * </pre>
+ *
+ * @author BlackCat
+ * @since 2026-10-19
+ */
+public enum RpcStreamType {
+
+    /** 普通调用，结果整体序列化后一次性返回 */
+    NONE,
+
+    /** 返回值为{@link Iterator}，客户端拿到的是边读边取的迭代器，同时实现了{@link AutoCloseable}，不读完时请close，超过etna.rpc.client.maxWaitForMs没有读取会被自动关闭 */
+    ITERATOR,
+
+    /** 返回值为{@link Stream}，客户端拿到的是边读边取的Stream，使用完毕后请close，超过etna.rpc.client.maxWaitForMs没有读取会被自动关闭 */
+    STREAM,
+
+    /** 最后一个参数为{@link RpcStreamObserver}，结果通过回调逐个返回 */
+    OBSERVER;
+
+    /**
+     * 根据接口方法的声明判断结果返回方式
+     */
+    public static RpcStreamType of(Method method) {
+        Class<?>[] paramTypes = method.getParameterTypes();
+        if (paramTypes.length > 0 && RpcStreamObserver.class.equals(paramTypes[paramTypes.length - 1])) {
+            if (!void.class.equals(method.getReturnType())) {
+                throw new IllegalArgumentException("RPC接口方法" + method + "使用了" + RpcStreamObserver.class.getSimpleName() + "参数，返回值必须是void");
+            }
+            return OBSERVER;
+        }
+        if (Iterator.class.equals(method.getReturnType())) {
+            return ITERATOR;
+        }
+        if (Stream.class.equals(method.getReturnType())) {
+            return STREAM;
+        }
+        return NONE;
+    }
+
+    /**
+     * 是否是流式调用
+     */
+    public boolean isStreaming() {
+        return this != NONE;
+    }
+}